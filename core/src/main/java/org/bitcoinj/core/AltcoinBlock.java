@@ -23,11 +23,15 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 
 
+import org.libdohj.core.AltcoinSerializer;
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.Sha256;
+import org.libdohj.core.UInt256;
 
 /**
  * <p>A block is a group of transactions, and is one of the fundamental data structures of the Bitcoin system.
@@ -48,12 +52,41 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
     /** AuxPoW header element, if applicable. */
     @Nullable private AuxPoW auxpow;
 
+    /**
+     * Wire format of an AuxPoW which has not been parsed yet, if the serializer
+     * defers AuxPoW parsing. Parsed on first access by {@link #getAuxPoW()}.
+     */
+    @Nullable private byte[] auxpowBytes;
+
+    /**
+     * Hash of this block when its proof of work was last found to be valid. As the
+     * hash covers every header field, this goes stale if any of them change.
+     */
+    @Nullable private volatile Sha256Hash verifiedPoWHash;
+
+    /**
+     * Proofs already found valid, shared by all blocks. May be null to check every
+     * proof.
+     */
+    @Nullable private static volatile AuxPoWCache auxpowCache = new AuxPoWCache();
+
+    /** Most recently used maximum target, in 256 bit form. */
+    @Nullable private static volatile MaxTarget maxTarget;
+
     /**
      * Whether the chain this block belongs to support AuxPoW, used to avoid
      * repeated instanceof checks. Initialised in parseTransactions()
      */
     private boolean auxpowChain = false;
 
+    // Parts of the block version, decoded on first access after the raw version
+    // changes, however it was set.
+    private boolean versionDecoded;
+    private long decodedVersion;
+    private long baseVersion;
+    private long chainID;
+    private int versionFlagBits;
+    private boolean auxpowVersion;
 
     /** Special case constructor, used for the genesis node, cloneAsHeader and unit tests.
      * @param params NetworkParameters object.
@@ -106,12 +139,66 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
     }
 
 
+    /**
+     * Get the AuxPoW of this block, parsing it first if parsing was deferred.
+     */
+    @Nullable
     public AuxPoW getAuxPoW() {
+        if (null == this.auxpow && null != this.auxpowBytes) {
+            this.auxpow = new AuxPoW(params, auxpowBytes, 0, this, serializer);
+            this.auxpowBytes = null;
+        }
         return this.auxpow;
     }
 
     public void setAuxPoW(AuxPoW auxpow) {
         this.auxpow = auxpow;
+        this.auxpowBytes = null;
+        this.verifiedPoWHash = null;
+    }
+
+    /**
+     * Whether this block has an AuxPoW, without parsing it if parsing was deferred.
+     */
+    public boolean hasAuxPoW() {
+        return null != this.auxpow || null != this.auxpowBytes;
+    }
+
+    /**
+     * Hash of the parent block header within the AuxPoW, without parsing the
+     * AuxPoW if parsing was deferred. The parent header is the last element of
+     * the AuxPoW.
+     */
+    private Sha256Hash getParentBlockHash() {
+        if (null != this.auxpowBytes) {
+            return Sha256Hash.wrapReversed(Sha256.hashTwice(auxpowBytes,
+                auxpowBytes.length - Block.HEADER_SIZE, Block.HEADER_SIZE));
+        }
+        return getAuxPoW().getParentBlockHeader().getHash();
+    }
+
+    /**
+     * Digest of the serialized AuxPoW, without parsing the AuxPoW if parsing was
+     * deferred.
+     */
+    private Sha256Hash getAuxPoWDigest() {
+        return Sha256Hash.of(null != this.auxpowBytes ? this.auxpowBytes : getAuxPoW().bitcoinSerialize());
+    }
+
+    /**
+     * Get the cache of AuxPoW proofs found valid, shared by all blocks.
+     */
+    @Nullable
+    public static AuxPoWCache getAuxPoWCache() {
+        return auxpowCache;
+    }
+
+    /**
+     * Set the cache of AuxPoW proofs found valid, shared by all blocks. Pass null
+     * to check every proof in full.
+     */
+    public static void setAuxPoWCache(@Nullable final AuxPoWCache cache) {
+        auxpowCache = cache;
     }
 
 
@@ -132,20 +219,22 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
      * Return chain ID from block version of an AuxPoW-enabled chain.
      */
     public long getChainID() {
-        return getChainID(this.getRawVersion());
+        decodeVersion();
+        return chainID;
     }
 
     /**
      * Return flags from block version of an AuxPoW-enabled chain.
      * 
      * @return flags as a bitset. 
+     * @see #getVersionFlagBits()
      */
     public BitSet getVersionFlags() {
+        decodeVersion();
         final BitSet bitset = new BitSet(BYTE_BITS);
-        final int bits = (int) (this.getRawVersion() & 0xff00) >> 8;
 
         for (int bit = 0; bit < BYTE_BITS; bit++) {
-            if ((bits & (1 << bit)) > 0) {
+            if ((versionFlagBits & (1 << bit)) > 0) {
                 bitset.set(bit);
             }
         }
@@ -153,6 +242,26 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         return bitset;
     }
 
+    /**
+     * Return flags from block version of an AuxPoW-enabled chain, without
+     * allocating.
+     *
+     * @return flags as the low 8 bits of an int, flag 0 being the lowest.
+     */
+    public int getVersionFlagBits() {
+        decodeVersion();
+        return versionFlagBits;
+    }
+
+    /**
+     * Whether the block version marks this block as having an AuxPoW, on a chain
+     * which supports AuxPoW.
+     */
+    public boolean isAuxPoWVersion() {
+        decodeVersion();
+        return auxpowVersion;
+    }
+
     /**
      * Return block version without applying any filtering (i.e. for AuxPoW blocks
      * which structure version differently to pack in additional data).
@@ -171,14 +280,32 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
 
     @Override
     public long getVersion() {
-        // TODO: Can we cache the individual parts on parse?
+        decodeVersion();
+        return baseVersion;
+    }
+
+    /**
+     * Decode the parts of the raw block version, unless already decoded from the
+     * current version, so they need not be extracted on every access.
+     */
+    private void decodeVersion() {
+        final long rawVersion = getRawVersion();
+        if (versionDecoded && decodedVersion == rawVersion) {
+            return;
+        }
         if (this.params instanceof AltcoinNetworkParameters) {
             // AuxPoW networks use the higher block version bits for flags and
             // chain ID.
-            return getBaseVersion(super.getVersion());
+            this.baseVersion = getBaseVersion(rawVersion);
         } else {
-            return super.getVersion();
+            this.baseVersion = rawVersion;
         }
+        this.chainID = getChainID(rawVersion);
+        this.versionFlagBits = (int) (rawVersion & 0xff00) >> 8;
+        this.auxpowVersion = this.params instanceof AuxPoWNetworkParameters
+            && ((AuxPoWNetworkParameters) this.params).isAuxPoWBlockVersion(rawVersion);
+        this.decodedVersion = rawVersion;
+        this.versionDecoded = true;
     }
 
     protected void parseAuxPoW() throws ProtocolException {
@@ -186,11 +313,22 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
             return;
 
         this.auxpow = null;
+        this.auxpowBytes = null;
         if (this.auxpowChain) {
-            final AuxPoWNetworkParameters auxpowParams = (AuxPoWNetworkParameters)this.params;
-            if (auxpowParams.isAuxPoWBlockVersion(this.getRawVersion())
-                && payload.length >= 160) { // We have at least 2 headers in an Aux block. Workaround for StoredBlocks
-                this.auxpow = new AuxPoW(params, payload, cursor, this, serializer);
+            // The payload may be a slice of a larger buffer, so measure up to the end of this message
+            final int end = length == UNKNOWN_LENGTH ? payload.length : offset + length;
+            if (isAuxPoWVersion()
+                && end - offset >= 160) { // We have at least 2 headers in an Aux block. Workaround for StoredBlocks
+                if (isLazyAuxPoW()) {
+                    // Just find where the AuxPoW ends, and keep its bytes for later
+                    final int auxpowLength = AltcoinBlockReader.auxPoWLength(payload, cursor, end);
+                    if (auxpowLength < 0) {
+                        throw new ProtocolException("AuxPoW extends past the end of the block");
+                    }
+                    this.auxpowBytes = Arrays.copyOfRange(payload, cursor, cursor + auxpowLength);
+                } else {
+                    this.auxpow = new AuxPoW(params, payload, cursor, this, serializer);
+                }
             }
         }
 
@@ -198,16 +336,29 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         this.auxpowBytesValid = serializer.isParseRetainMode();
     }
 
+    /**
+     * Whether the AuxPoW should only be located when parsing, and parsed in full on
+     * first access.
+     */
+    private boolean isLazyAuxPoW() {
+        return serializer instanceof AltcoinSerializer
+            && ((AltcoinSerializer) serializer).isLazyAuxPoW();
+    }
+
     @Override
     protected void parseTransactions(final int offset) {
         this.auxpowChain = params instanceof AuxPoWNetworkParameters;
         parseAuxPoW();
+        final int auxpowSize;
         if (null != this.auxpow) {
-            super.parseTransactions(offset + auxpow.getMessageSize());
-            optimalEncodingMessageSize += auxpow.getMessageSize();
+            auxpowSize = auxpow.getMessageSize();
+        } else if (null != this.auxpowBytes) {
+            auxpowSize = auxpowBytes.length;
         } else {
-            super.parseTransactions(offset);
+            auxpowSize = 0;
         }
+        super.parseTransactions(offset + auxpowSize);
+        optimalEncodingMessageSize += auxpowSize;
     }
 
     @Override
@@ -215,6 +366,8 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         super.writeHeader(stream);
         if (null != this.auxpow) {
             this.auxpow.bitcoinSerialize(stream);
+        } else if (null != this.auxpowBytes) {
+            stream.write(this.auxpowBytes);
         }
     }
 
@@ -224,28 +377,107 @@ public class AltcoinBlock extends org.bitcoinj.core.Block {
         AltcoinBlock block = new AltcoinBlock(params, getRawVersion());
         super.copyBitcoinHeaderTo(block);
         block.auxpow = auxpow;
+        block.auxpowBytes = auxpowBytes;
+        block.verifiedPoWHash = verifiedPoWHash;
         return block;
     }
 
-    /** Returns true if the hash of the block is OK (lower than difficulty target). */
+    /**
+     * Returns true if the hash of the block is OK (lower than difficulty target).
+     * Successful checks are remembered, so headers verified ahead of time (see
+     * {@link HeaderBatchVerifier}) are not checked again when added to the chain.
+     */
     protected boolean checkProofOfWork(boolean throwException) throws VerificationException {
+        final Sha256Hash hash = getHash();
+        if (hash.equals(verifiedPoWHash)) {
+            return true;
+        }
+        final boolean valid = verifyProofOfWork(throwException);
+        if (valid) {
+            verifiedPoWHash = hash;
+        }
+        return valid;
+    }
+
+    /**
+     * Whether the proof of work of this block, as it currently stands, is known to
+     * be valid.
+     */
+    boolean isProofOfWorkVerified() {
+        return getHash().equals(verifiedPoWHash);
+    }
+
+    /**
+     * Returns the difficulty target as a 256 bit integer, checked to be in range
+     * exactly as {@link #getDifficultyTargetAsInteger()} does, but without
+     * BigInteger arithmetic.
+     *
+     * @throws VerificationException if the target is not positive, or above the
+     * network's maximum.
+     */
+    public UInt256 getDifficultyTargetAsUInt256() throws VerificationException {
+        final UInt256 target = UInt256.fromCompactBits(getDifficultyTarget());
+        if (null == target || target.isZero() || target.compareTo(getMaxTarget()) > 0) {
+            // Report it as Block would
+            throw new VerificationException("Difficulty target is bad: "
+                + Utils.decodeCompactBits(getDifficultyTarget()).toString());
+        }
+        return target;
+    }
+
+    /**
+     * The network's maximum target, converted once for each parameters instance
+     * seen in turn.
+     */
+    private UInt256 getMaxTarget() {
+        final MaxTarget cached = maxTarget;
+        final BigInteger value = params.getMaxTarget();
+        if (null != cached && cached.value == value) {
+            return cached.target;
+        }
+        final MaxTarget converted = new MaxTarget(value);
+        maxTarget = converted;
+        return converted.target;
+    }
+
+    private static final class MaxTarget {
+        private final BigInteger value;
+        private final UInt256 target;
+
+        private MaxTarget(final BigInteger value) {
+            this.value = value;
+            this.target = UInt256.fromBigInteger(value);
+        }
+    }
+
+    private boolean verifyProofOfWork(boolean throwException) throws VerificationException {
         if (params instanceof AltcoinNetworkParameters) {
-            BigInteger target = getDifficultyTargetAsInteger();
+            final UInt256 target = getDifficultyTargetAsUInt256();
 
-            if (params instanceof AuxPoWNetworkParameters) {
-                final AuxPoWNetworkParameters auxParams = (AuxPoWNetworkParameters)this.params;
-                if (auxParams.isAuxPoWBlockVersion(getRawVersion()) && null != auxpow) {
-                    return auxpow.checkProofOfWork(this.getHash(), target, throwException);
+            if (isAuxPoWVersion() && hasAuxPoW()) {
+                final AuxPoWCache cache = auxpowCache;
+                if (null == cache) {
+                    return getAuxPoW().checkProofOfWork(this.getHash(), target, throwException);
+                }
+                final Sha256Hash parentBlockHash = getParentBlockHash();
+                final Sha256Hash auxpowDigest = getAuxPoWDigest();
+                if (cache.isVerified(getHash(), parentBlockHash, getDifficultyTarget(), auxpowDigest)) {
+                    return true;
+                }
+                final boolean valid = getAuxPoW().checkProofOfWork(this.getHash(), target, throwException);
+                if (valid) {
+                    cache.setVerified(getHash(), parentBlockHash, getDifficultyTarget(), auxpowDigest);
                 }
+                return valid;
             }
 
             final AltcoinNetworkParameters altParams = (AltcoinNetworkParameters)this.params;
-            BigInteger h = altParams.getBlockDifficultyHash(this).toBigInteger();
+            final UInt256 h = UInt256.fromBytes(altParams.getBlockDifficultyHash(this).getBytes());
             if (h.compareTo(target) > 0) {
                 // Proof of work check failed!
                 if (throwException)
                     throw new VerificationException("Hash is higher than target: " + getHashAsString() + " vs "
-                            + target.toString(16));
+                            + target.toString());
                 else
                     return false;
             }
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * <p>Reads a block from the wire format incrementally, rather than from a fully
+ * materialized payload. The header (including any AuxPoW) is read first, and the
+ * transactions are then returned one at a time as they arrive, so only the largest
+ * single element of the block needs to be held in memory at once.</p>
+ *
+ * <p>Typical usage:</p>
+ * <pre>
+ * AltcoinBlockReader reader = new AltcoinBlockReader(params, channel);
+ * AltcoinBlock header = reader.readHeader();
+ * Transaction tx;
+ * while ((tx = reader.nextTransaction()) != null) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>Not thread safe.</p>
+ */
+public class AltcoinBlockReader implements Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final NetworkParameters params;
+    private final MessageSerializer serializer;
+    private final ReadableByteChannel channel;
+    /** Unconsumed data lies between position and limit. */
+    private ByteBuffer buffer;
+
+    @Nullable private AltcoinBlock header;
+    private long transactionCount;
+    private long transactionsRead;
+
+    public AltcoinBlockReader(final NetworkParameters params, final ReadableByteChannel channel) {
+        this(params, params.getDefaultSerializer(), channel);
+    }
+
+    /**
+     * Read a block held in a buffer, from the buffer's position onwards. The buffer's
+     * position is not modified.
+     */
+    public AltcoinBlockReader(final NetworkParameters params, final ByteBuffer in) {
+        this(params, params.getDefaultSerializer(), new BufferChannel(in.duplicate()));
+    }
+
+    public AltcoinBlockReader(final NetworkParameters params, final MessageSerializer serializer,
+            final ReadableByteChannel channel) {
+        this.params = params;
+        this.serializer = serializer;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    /**
+     * Read the block header, AuxPoW and transaction count. Must be called before any
+     * transactions are read.
+     *
+     * @return the block header, with an AuxPoW if it has one, and no transactions.
+     * @throws EOFException if the channel ends before the header is complete.
+     */
+    public AltcoinBlock readHeader() throws IOException, ProtocolException {
+        if (header != null) {
+            throw new IllegalStateException("Header has already been read");
+        }
+        require(Block.HEADER_SIZE);
+        // Need to provide 0 transactions so the block header can be constructed
+        final byte[] headerBytes = new byte[Block.HEADER_SIZE + 1];
+        buffer.get(headerBytes, 0, Block.HEADER_SIZE);
+        final AltcoinBlock block = new AltcoinBlock(params, headerBytes, 0, serializer, headerBytes.length);
+
+        if (block.isAuxPoWVersion()) {
+            final int length = measure(true);
+            final AuxPoW auxpow = new AuxPoW(params, array(length), offset(), null, serializer);
+            buffer.position(buffer.position() + length);
+            block.setAuxPoW(auxpow);
+        }
+
+        require(1);
+        require(varIntLength(buffer.get(buffer.position())));
+        final VarInt count = new VarInt(buffer.array(), buffer.arrayOffset() + buffer.position());
+        buffer.position(buffer.position() + count.getOriginalSizeInBytes());
+        transactionCount = count.value;
+        header = block;
+        return block;
+    }
+
+    /**
+     * Get the number of transactions in the block, as given after the header.
+     */
+    public long getTransactionCount() {
+        if (header == null) {
+            throw new IllegalStateException("Header has not been read yet");
+        }
+        return transactionCount;
+    }
+
+    /**
+     * Read the next transaction of the block.
+     *
+     * @return the next transaction, or null once every transaction has been read.
+     * @throws EOFException if the channel ends part way through the block.
+     */
+    @Nullable
+    public Transaction nextTransaction() throws IOException, ProtocolException {
+        if (header == null) {
+            throw new IllegalStateException("Header has not been read yet");
+        }
+        if (transactionsRead == transactionCount) {
+            return null;
+        }
+        final int length = measure(false);
+        final Transaction tx = new Transaction(params, array(length), offset(), null, serializer, length, null);
+        buffer.position(buffer.position() + length);
+        transactionsRead++;
+        return tx;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Get the array to parse the next <code>length</code> bytes from. Messages
+     * parsed in retain mode keep a reference to the array, so they are given a copy
+     * rather than the buffer which is about to be refilled.
+     */
+    private byte[] array(final int length) {
+        if (serializer.isParseRetainMode()) {
+            final int start = buffer.arrayOffset() + buffer.position();
+            return Arrays.copyOfRange(buffer.array(), start, start + length);
+        }
+        return buffer.array();
+    }
+
+    private int offset() {
+        return serializer.isParseRetainMode() ? 0 : buffer.arrayOffset() + buffer.position();
+    }
+
+    /**
+     * Find the length of the next AuxPoW or transaction, reading from the channel
+     * until it is entirely buffered.
+     */
+    private int measure(final boolean auxpow) throws IOException {
+        while (true) {
+            final int start = buffer.arrayOffset() + buffer.position();
+            final int end = buffer.arrayOffset() + buffer.limit();
+            final int length = auxpow
+                ? auxPoWLength(buffer.array(), start, end)
+                : transactionLength(buffer.array(), start, end);
+            if (length >= 0) {
+                return length;
+            }
+            require(buffer.remaining() + 1);
+        }
+    }
+
+    /**
+     * Make sure at least the given number of bytes are buffered, growing the buffer
+     * if needed.
+     */
+    private void require(final int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        if (length > Message.MAX_SIZE) {
+            throw new ProtocolException("Block element larger than " + Message.MAX_SIZE + " bytes");
+        }
+        if (length > buffer.capacity()) {
+            final ByteBuffer larger = ByteBuffer.allocate(Math.min(Message.MAX_SIZE,
+                Math.max(length, buffer.capacity() * 2)));
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        try {
+            while (buffer.position() < length) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException(header == null
+                        ? "Block ended within the header"
+                        : "Block ended after " + transactionsRead + " of " + transactionCount + " transactions");
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Get the length of the variable length integer at the given offset, or -1 if it
+     * is not entirely within the limit.
+     */
+    static int varIntLength(final byte[] buf, final int offset, final int limit) {
+        if (offset >= limit) {
+            return -1;
+        }
+        final int length = varIntLength(buf[offset]);
+        return offset + length <= limit ? length : -1;
+    }
+
+    /**
+     * Get the length of a variable length integer from its first byte.
+     */
+    private static int varIntLength(final byte first) {
+        switch (first & 0xff) {
+            case 0xfd:
+                return 3;
+            case 0xfe:
+                return 5;
+            case 0xff:
+                return 9;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Get the value of the variable length integer at the given offset, which must
+     * be within the buffer.
+     */
+    private static long varIntValue(final byte[] buf, final int offset) {
+        return new VarInt(buf, offset).value;
+    }
+
+    /**
+     * Skip a length prefixed byte array, returning the offset following it, or -1 if
+     * the array is not entirely within the limit.
+     */
+    private static long skipBytes(final byte[] buf, final long offset, final int limit) {
+        final int varint = offset < 0 ? -1 : varIntLength(buf, (int) offset, limit);
+        if (varint < 0) {
+            return -1;
+        }
+        final long end = offset + varint + varIntValue(buf, (int) offset);
+        return end >= 0 && end <= limit ? end : -1;
+    }
+
+    /**
+     * Get the length of the transaction at the given offset, or -1 if it is not
+     * entirely within the limit. Transactions with witness data are supported.
+     */
+    static int transactionLength(final byte[] buf, final int offset, final int limit) {
+        long cursor = offset + 4;
+        boolean witness = false;
+        if (cursor + 2 > limit) {
+            return -1;
+        }
+        if (buf[(int) cursor] == 0) {
+            // Segwit marker and flag, detected the same way Transaction.parse() does
+            witness = true;
+            cursor += 2;
+        }
+
+        int varint = varIntLength(buf, (int) cursor, limit);
+        if (varint < 0) {
+            return -1;
+        }
+        final long inputs = varIntValue(buf, (int) cursor);
+        cursor += varint;
+        for (long i = 0; i < inputs; i++) {
+            // Outpoint, then script, then sequence
+            cursor = skipBytes(buf, cursor + 36, limit);
+            if (cursor < 0) {
+                return -1;
+            }
+            cursor += 4;
+        }
+
+        varint = cursor < limit ? varIntLength(buf, (int) cursor, limit) : -1;
+        if (varint < 0) {
+            return -1;
+        }
+        final long outputs = varIntValue(buf, (int) cursor);
+        cursor += varint;
+        for (long i = 0; i < outputs; i++) {
+            // Value, then script
+            cursor = skipBytes(buf, cursor + 8, limit);
+            if (cursor < 0) {
+                return -1;
+            }
+        }
+
+        if (witness) {
+            for (long i = 0; i < inputs; i++) {
+                varint = cursor < limit ? varIntLength(buf, (int) cursor, limit) : -1;
+                if (varint < 0) {
+                    return -1;
+                }
+                final long items = varIntValue(buf, (int) cursor);
+                cursor += varint;
+                for (long j = 0; j < items; j++) {
+                    cursor = skipBytes(buf, cursor, limit);
+                    if (cursor < 0) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        // Lock time
+        cursor += 4;
+        return cursor <= limit ? (int) (cursor - offset) : -1;
+    }
+
+    /**
+     * Get the length of the merkle branch at the given offset, or -1 if it is not
+     * entirely within the limit.
+     */
+    static int merkleBranchLength(final byte[] buf, final int offset, final int limit) {
+        final int varint = varIntLength(buf, offset, limit);
+        if (varint < 0) {
+            return -1;
+        }
+        // Hashes, then the index
+        final long length = varint + varIntValue(buf, offset) * 32 + 4;
+        return length >= 0 && offset + length <= limit ? (int) length : -1;
+    }
+
+    /**
+     * Get the length of the AuxPoW at the given offset, or -1 if it is not entirely
+     * within the limit.
+     */
+    static int auxPoWLength(final byte[] buf, final int offset, final int limit) {
+        final int transaction = transactionLength(buf, offset, limit);
+        if (transaction < 0) {
+            return -1;
+        }
+        // Coinbase transaction, then the parent block hash
+        int cursor = offset + transaction + 32;
+        for (int branch = 0; branch < 2; branch++) {
+            final int length = cursor < limit ? merkleBranchLength(buf, cursor, limit) : -1;
+            if (length < 0) {
+                return -1;
+            }
+            cursor += length;
+        }
+        // Parent block header
+        cursor += Block.HEADER_SIZE;
+        return cursor <= limit ? cursor - offset : -1;
+    }
+
+    /**
+     * Channel reading from a buffer, so in-memory blocks can be read the same way.
+     */
+    private static class BufferChannel implements ReadableByteChannel {
+        private final ByteBuffer in;
+        private boolean open = true;
+
+        BufferChannel(final ByteBuffer in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            final int length = Math.min(in.remaining(), dst.remaining());
+            final ByteBuffer chunk = in.duplicate();
+            chunk.limit(chunk.position() + length);
+            dst.put(chunk);
+            in.position(in.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
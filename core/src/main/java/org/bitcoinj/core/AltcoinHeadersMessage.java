@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.libdohj.core.AuxPoWNetworkParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>A protocol message that contains block headers, each of which may carry an
+ * AuxPoW after the usual 80 bytes. Sent in response to a "getheaders" command,
+ * so SPV clients of merge-mined chains can sync headers first.</p>
+ *
+ * <p>Each header is parsed with exactly its own bytes, using the serializer the
+ * message was read with, so settings such as
+ * {@link org.libdohj.core.AltcoinSerializer#isLazyAuxPoW()} carry through to the
+ * headers.</p>
+ */
+public class AltcoinHeadersMessage extends HeadersMessage {
+    public AltcoinHeadersMessage(final NetworkParameters params, final byte[] payload) throws ProtocolException {
+        this(params, payload, 0, params.getDefaultSerializer(), payload.length);
+    }
+
+    /**
+     * Parse a headers message from the wire format.
+     *
+     * @param length the length of the message, or {@link Message#UNKNOWN_LENGTH}
+     * if it runs to the end of the payload.
+     */
+    public AltcoinHeadersMessage(final NetworkParameters params, final byte[] payload, final int offset,
+            final MessageSerializer serializer, final int length) throws ProtocolException {
+        // HeadersMessage cannot parse with a given serializer or offset, so parse
+        // the headers first and build the message from them
+        super(params, parseHeaders(params, payload, offset, serializer, length));
+    }
+
+    public AltcoinHeadersMessage(final NetworkParameters params, final Block... headers) throws ProtocolException {
+        super(params, headers);
+    }
+
+    public AltcoinHeadersMessage(final NetworkParameters params, final List<Block> headers) throws ProtocolException {
+        super(params, headers);
+    }
+
+    /**
+     * Parse the headers of a headers message, each with exactly its own bytes.
+     *
+     * @param length the length of the message, or {@link Message#UNKNOWN_LENGTH}
+     * if it runs to the end of the payload.
+     */
+    static List<Block> parseHeaders(final NetworkParameters params, final byte[] payload, final int offset,
+            final MessageSerializer serializer, final int length) throws ProtocolException {
+        final int end = length == UNKNOWN_LENGTH ? payload.length : offset + length;
+        final VarInt numHeadersVarInt;
+        try {
+            numHeadersVarInt = new VarInt(payload, offset);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new ProtocolException(e);
+        }
+        final long numHeaders = numHeadersVarInt.value;
+        if (numHeaders < 0 || numHeaders > MAX_HEADERS)
+            throw new ProtocolException("Too many headers: got " + numHeaders + " which is larger than " +
+                                         MAX_HEADERS);
+
+        final AuxPoWNetworkParameters auxpowParams = params instanceof AuxPoWNetworkParameters
+            ? (AuxPoWNetworkParameters) params
+            : null;
+        final List<Block> headers = new ArrayList<Block>((int) numHeaders);
+        int cursor = offset + numHeadersVarInt.getOriginalSizeInBytes();
+        for (int i = 0; i < numHeaders; i++) {
+            if (cursor + Block.HEADER_SIZE > end) {
+                throw new ProtocolException("Headers message ends part way through a header");
+            }
+            int headerSize = Block.HEADER_SIZE;
+            if (auxpowParams != null && auxpowParams.isAuxPoWBlockVersion(Utils.readUint32(payload, cursor))) {
+                final int auxpowSize = AltcoinBlockReader.auxPoWLength(payload, cursor + Block.HEADER_SIZE, end);
+                if (auxpowSize < 0) {
+                    throw new ProtocolException("Headers message ends part way through an AuxPoW");
+                }
+                headerSize += auxpowSize;
+            }
+            // Each header is followed by an empty transaction count
+            if (cursor + headerSize >= end || payload[cursor + headerSize] != 0) {
+                throw new ProtocolException("Block header does not end with a null byte");
+            }
+            headers.add(new AltcoinBlock(params, payload, cursor, serializer, headerSize + 1));
+            cursor += headerSize + 1;
+        }
+        return headers;
+    }
+}
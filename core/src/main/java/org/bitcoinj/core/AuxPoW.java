@@ -19,6 +19,7 @@
 package org.bitcoinj.core;
 
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.UInt256;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +50,9 @@ public class AuxPoW extends ChildMessage {
 
     private static final Logger log = LoggerFactory.getLogger(AuxPoW.class);
     private static final long serialVersionUID = -8567546957352643140L;
+    /** The largest target a 256 bit hash can be compared against. */
+    private static final UInt256 MAX_TARGET
+        = UInt256.fromBigInteger(BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE));
 
     private Transaction transaction;
     private Sha256Hash hashBlock;
@@ -243,6 +247,66 @@ public class AuxPoW extends ChildMessage {
      */
     protected boolean checkProofOfWork(Sha256Hash hashAuxBlock,
         BigInteger target, boolean throwException) throws VerificationException {
+        if (!checkAuxPoW(hashAuxBlock, throwException)) {
+            return false;
+        }
+        // Every hash meets a target too large for 256 bits, and none meets a negative one
+        final UInt256 fixedTarget;
+        if (target.signum() < 0) {
+            fixedTarget = null;
+        } else if (target.bitLength() > 256) {
+            fixedTarget = MAX_TARGET;
+        } else {
+            fixedTarget = UInt256.fromBigInteger(target);
+        }
+        return checkParentProofOfWork(fixedTarget, target, throwException);
+    }
+
+    /**
+     * Check the proof of work for this AuxPoW header meets the target
+     * difficulty, without BigInteger arithmetic.
+     *
+     * @param hashAuxBlock hash of the block the AuxPoW header is attached to.
+     * @param target the difficulty target after decoding from compact bits.
+     */
+    protected boolean checkProofOfWork(Sha256Hash hashAuxBlock,
+        UInt256 target, boolean throwException) throws VerificationException {
+        if (!checkAuxPoW(hashAuxBlock, throwException)) {
+            return false;
+        }
+        return checkParentProofOfWork(target, null, throwException);
+    }
+
+    /**
+     * Check the proof of work of the parent block meets the target.
+     *
+     * @param target the target, or null if it is negative, which no hash meets.
+     * @param originalTarget the target as given, if given as a BigInteger, for
+     * reporting.
+     */
+    private boolean checkParentProofOfWork(@Nullable UInt256 target, @Nullable BigInteger originalTarget,
+            boolean throwException) throws VerificationException {
+        final AuxPoWNetworkParameters altcoinParams = (AuxPoWNetworkParameters) params;
+        Sha256Hash hash = altcoinParams.getBlockDifficultyHash(getParentBlockHeader());
+        if (null == target || UInt256.fromBytes(hash.getBytes()).compareTo(target) > 0) {
+            // Proof of work check failed!
+            if (throwException) {
+                throw new VerificationException("Hash is higher than target: " + hash.toString() + " vs "
+                        + (null != originalTarget ? originalTarget.toString(16) : target.toString()));
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Check everything about this AuxPoW header except the proof of work of the
+     * parent block.
+     *
+     * @param hashAuxBlock hash of the block the AuxPoW header is attached to.
+     */
+    private boolean checkAuxPoW(Sha256Hash hashAuxBlock, boolean throwException) throws VerificationException {
         if (!(params instanceof AuxPoWNetworkParameters)) {
             if (throwException) {
                 // Should be impossible
@@ -372,17 +436,6 @@ public class AuxPoW extends ChildMessage {
             return false;
         }
 
-        Sha256Hash hash = altcoinParams.getBlockDifficultyHash(getParentBlockHeader());
-        BigInteger hashVal = hash.toBigInteger();
-        if (hashVal.compareTo(target) > 0) {
-            // Proof of work check failed!
-            if (throwException) {
-                throw new VerificationException("Hash is higher than target: " + hash.toString() + " vs "
-                        + target.toString(16));
-            }
-            return false;
-        }
-
         return true;
     }
 
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Remembers AuxPoW proofs which have been found valid, so the same proof seen
+ * again (during a re-org, on reconnecting, or relayed by several peers) is not
+ * checked again.</p>
+ *
+ * <p>Entries are keyed by the hash of the merge-mined block, the hash of the
+ * parent block header and the difficulty target. The key alone does not cover
+ * the coinbase transaction or the merkle branches which link the parent header
+ * to the merge-mined block, so each entry also holds a digest of the whole
+ * serialized AuxPoW, and a proof is only found verified if its digest matches.
+ * Only successes are cached; failures are checked each time so the reason can
+ * be reported.</p>
+ *
+ * <p>The cache is bounded, evicting the least recently used entries once full,
+ * and is safe for use by multiple threads.</p>
+ */
+public class AuxPoWCache {
+    /** Number of proofs the default cache holds. */
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final Cache<Key, Sha256Hash> verified;
+
+    public AuxPoWCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize the number of proofs to remember.
+     */
+    public AuxPoWCache(final long maximumSize) {
+        checkArgument(maximumSize > 0, "Maximum size must be positive");
+        this.verified = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Whether the given AuxPoW proof has been found valid. Counts as a hit or a
+     * miss in the statistics by its key alone, so a proof whose digest differs
+     * from the one recorded counts as a hit, but is not found verified.
+     *
+     * @param auxBlockHash hash of the merge-mined block.
+     * @param parentBlockHash hash of the parent block header from the AuxPoW.
+     * @param difficultyTarget the merge-mined block's target, in compact form.
+     * @param auxpowDigest digest of the serialized AuxPoW.
+     */
+    public boolean isVerified(final Sha256Hash auxBlockHash, final Sha256Hash parentBlockHash,
+            final long difficultyTarget, final Sha256Hash auxpowDigest) {
+        return auxpowDigest.equals(verified.getIfPresent(new Key(auxBlockHash, parentBlockHash, difficultyTarget)));
+    }
+
+    /**
+     * Record that the given AuxPoW proof is valid.
+     *
+     * @see #isVerified(Sha256Hash, Sha256Hash, long, Sha256Hash)
+     */
+    public void setVerified(final Sha256Hash auxBlockHash, final Sha256Hash parentBlockHash,
+            final long difficultyTarget, final Sha256Hash auxpowDigest) {
+        verified.put(new Key(auxBlockHash, parentBlockHash, difficultyTarget), auxpowDigest);
+    }
+
+    /**
+     * Forget every proof.
+     */
+    public void clear() {
+        verified.invalidateAll();
+    }
+
+    /**
+     * @return the approximate number of proofs remembered.
+     */
+    public long size() {
+        return verified.size();
+    }
+
+    public long getHitCount() {
+        return verified.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return verified.stats().missCount();
+    }
+
+    /**
+     * @return a snapshot of the statistics, including evictions.
+     */
+    public CacheStats getStats() {
+        return verified.stats();
+    }
+
+    private static final class Key {
+        private final Sha256Hash auxBlockHash;
+        private final Sha256Hash parentBlockHash;
+        private final long difficultyTarget;
+
+        Key(final Sha256Hash auxBlockHash, final Sha256Hash parentBlockHash, final long difficultyTarget) {
+            this.auxBlockHash = auxBlockHash;
+            this.parentBlockHash = parentBlockHash;
+            this.difficultyTarget = difficultyTarget;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key other = (Key) o;
+            return difficultyTarget == other.difficultyTarget
+                && auxBlockHash.equals(other.auxBlockHash)
+                && parentBlockHash.equals(other.parentBlockHash);
+        }
+
+        @Override
+        public int hashCode() {
+            // Both hashes are already uniformly distributed
+            return auxBlockHash.hashCode() ^ (31 * parentBlockHash.hashCode()) ^ (int) difficultyTarget;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.Sha256;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * <p>Checks AuxPoW proof of work directly against the wire format of the AuxPoW,
+ * without building the coinbase transaction, merkle branches or parent header.
+ * Applies the same rules, in the same order and with the same messages, as
+ * {@link AuxPoW#checkProofOfWork(Sha256Hash, java.math.BigInteger, boolean)}.</p>
+ *
+ * <p>The coinbase script is scanned once for the merged mining header and chain
+ * merkle root, and all hashing is done into scratch buffers held by the verifier,
+ * so a successful verification allocates nothing. Instances are therefore not
+ * thread safe; use one per thread.</p>
+ *
+ * <p>The parent block is hashed with SHA256 twice for comparison against the
+ * target, which matches {@link org.libdohj.core.AltcoinNetworkParameters#getBlockDifficultyHash(Block)}
+ * for the networks in this library. Networks using a different proof of work hash
+ * should override {@link #getParentDifficultyHash(byte[], int, byte[])}.</p>
+ */
+public class AuxPoWVerifier {
+    private static final int HASH_LENGTH = 32;
+    /** Merged mining header, as a big-endian int for matching in one comparison. */
+    private static final int MERGED_MINING_HEADER = readIntBE(AuxPoW.MERGED_MINING_HEADER, 0);
+
+    private final NetworkParameters params;
+    private final MessageDigest digest = Sha256.newDigest();
+    /** Pair of hashes being combined, and the result of combining them. */
+    private final byte[] pair = new byte[HASH_LENGTH * 2];
+    private final byte[] chainRoot = new byte[HASH_LENGTH];
+    private final byte[] target = new byte[HASH_LENGTH];
+
+    // Offsets into the AuxPoW being verified, set by locate()
+    private int txStart;
+    private int inputsStart;
+    private long inputCount;
+    private int scriptStart;
+    private int scriptLength;
+    private int outputsEnd;
+    private int lockTime;
+    private int coinbaseBranchStart;
+    private long coinbaseBranchSize;
+    private long coinbaseBranchIndex;
+    private int chainBranchStart;
+    private long chainBranchSize;
+    private long chainBranchIndex;
+    private int parentHeader;
+
+    public AuxPoWVerifier(final NetworkParameters params) {
+        this.params = params;
+    }
+
+    /**
+     * Check the proof of work for a serialized AuxPoW header meets the target
+     * difficulty.
+     *
+     * @param auxpow array containing the serialized AuxPoW.
+     * @param offset offset of the AuxPoW within the array.
+     * @param length length of the AuxPoW.
+     * @param hashAuxBlock hash of the block the AuxPoW header is attached to.
+     * @param difficultyTarget the difficulty target in compact form.
+     * @throws ProtocolException if the AuxPoW is malformed.
+     */
+    public boolean checkProofOfWork(final byte[] auxpow, final int offset, final int length,
+            final Sha256Hash hashAuxBlock, final long difficultyTarget, final boolean throwException)
+            throws VerificationException {
+        if (!(params instanceof AuxPoWNetworkParameters)) {
+            if (throwException) {
+                // Should be impossible
+                throw new VerificationException("Network parameters are not an instance of AuxPoWNetworkParameters, AuxPoW support is not available.");
+            }
+            return false;
+        }
+        final AuxPoWNetworkParameters altcoinParams = (AuxPoWNetworkParameters) params;
+        locate(auxpow, offset, offset + length);
+
+        if (0 != coinbaseBranchIndex) {
+            if (throwException) {
+                // I don't like the message, but it correlates with what's in the reference client.
+                throw new VerificationException("AuxPow is not a generate");
+            }
+            return false;
+        }
+
+        if (!altcoinParams.isTestNet()
+            && AltcoinBlock.getChainID(Utils.readUint32(auxpow, parentHeader)) == altcoinParams.getChainID()) {
+            if (throwException) {
+                throw new VerificationException("Aux POW parent has our chain ID");
+            }
+            return false;
+        }
+
+        if (chainBranchSize > 30) {
+            if (throwException) {
+                throw new VerificationException("Aux POW chain merkle branch too long");
+            }
+            return false;
+        }
+
+        // Merkle roots are calculated in little-endian order, as in MerkleBranch
+        final byte[] auxBlock = hashAuxBlock.getBytes();
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            pair[i] = auxBlock[HASH_LENGTH - 1 - i];
+        }
+        calculateMerkleRoot(auxpow, chainBranchStart, chainBranchSize, chainBranchIndex);
+        System.arraycopy(pair, 0, chainRoot, 0, HASH_LENGTH);
+
+        // Check that the coinbase transaction is in the merkle tree of the
+        // parent block header
+        hashCoinbase(auxpow);
+        calculateMerkleRoot(auxpow, coinbaseBranchStart, coinbaseBranchSize, coinbaseBranchIndex);
+        if (!rangeEquals(pair, 0, auxpow, parentHeader + 36, HASH_LENGTH)) {
+            if (throwException) {
+                throw new VerificationException("Aux POW merkle root incorrect");
+            }
+            return false;
+        }
+
+        if (inputCount == 0) {
+            throw new VerificationException("Coinbase transaction has no inputs");
+        }
+
+        // Check that the same work is not submitted twice to our chain, by
+        // confirming that the child block hash is in the coinbase merkle tree.
+        // The root appears in the script in big-endian order.
+        final int scriptEnd = scriptStart + scriptLength;
+        final byte rootFirst = chainRoot[HASH_LENGTH - 1];
+        int pcHead = -1;
+        int pc = -1;
+
+        for (int scriptIdx = scriptStart; scriptIdx < scriptEnd; scriptIdx++) {
+            if (scriptIdx + 4 <= scriptEnd && readIntBE(auxpow, scriptIdx) == MERGED_MINING_HEADER) {
+                // Enforce only one chain merkle root by checking that a single instance of the merged
+                // mining header exists just before.
+                if (pcHead >= 0) {
+                    if (throwException) {
+                        throw new VerificationException("Multiple merged mining headers in coinbase");
+                    }
+                    return false;
+                }
+                pcHead = scriptIdx - scriptStart;
+            } else if (auxpow[scriptIdx] == rootFirst && scriptIdx + HASH_LENGTH <= scriptEnd
+                    && reversedEquals(auxpow, scriptIdx, chainRoot)) {
+                pc = scriptIdx - scriptStart;
+            }
+        }
+
+        if (pc == -1) {
+            if (throwException) {
+                throw new VerificationException("Aux POW missing chain merkle root in parent coinbase");
+            }
+            return false;
+        }
+
+        if (pcHead != -1) {
+            if (pcHead + AuxPoW.MERGED_MINING_HEADER.length != pc) {
+                if (throwException) {
+                    throw new VerificationException("Merged mining header is not just before chain merkle root");
+                }
+                return false;
+            }
+        } else {
+            // For backward compatibility.
+            // Enforce only one chain merkle root by checking that it starts early in the coinbase.
+            // 8-12 bytes are enough to encode extraNonce and nBits.
+            if (pc > AuxPoW.MAX_INDEX_PC_BACKWARDS_COMPATIBILITY) {
+                if (throwException) {
+                    throw new VerificationException("Aux POW chain merkle root must start in the first 20 bytes of the parent coinbase");
+                }
+                return false;
+            }
+        }
+
+        // Ensure we are at a deterministic point in the merkle leaves by hashing
+        // a nonce and our chain ID and comparing to the index.
+        pc += HASH_LENGTH;
+        if ((scriptLength - pc) < 8) {
+            if (throwException) {
+                throw new VerificationException("Aux POW missing chain merkle tree size and nonce in parent coinbase");
+            }
+            return false;
+        }
+
+        final int branchSize = (int) Utils.readUint32(auxpow, scriptStart + pc);
+        if (branchSize != (1 << (int) chainBranchSize)) {
+            if (throwException) {
+                throw new VerificationException("Aux POW merkle branch size does not match parent coinbase");
+            }
+            return false;
+        }
+
+        final long nonce = Utils.readUint32(auxpow, scriptStart + pc + 4);
+        final int expectedIndex = AuxPoW.getExpectedIndex(nonce, altcoinParams.getChainID(), (int) chainBranchSize);
+        if (chainBranchIndex != expectedIndex) {
+            if (throwException) {
+                throw new VerificationException("Aux POW wrong index in chain merkle branch for chain ID "
+                    + altcoinParams.getChainID() + ". Was "
+                    + chainBranchIndex + ", expected "
+                    + expectedIndex);
+            }
+            return false;
+        }
+
+        getParentDifficultyHash(auxpow, parentHeader, pair);
+        if (!expandTarget(difficultyTarget) || compareReversed(pair, target) > 0) {
+            // Proof of work check failed!
+            if (throwException) {
+                throw new VerificationException("Hash is higher than target: "
+                        + Sha256Hash.wrapReversed(Arrays.copyOf(pair, HASH_LENGTH)) + " vs "
+                        + Utils.decodeCompactBits(difficultyTarget).toString(16));
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Calculate the hash of the parent block header used to check it against
+     * the target difficulty.
+     *
+     * @param auxpow array containing the AuxPoW.
+     * @param offset offset of the parent block header within the array.
+     * @param hash array to write the hash to, in little-endian order, starting at
+     * index 0.
+     */
+    protected void getParentDifficultyHash(final byte[] auxpow, final int offset, final byte[] hash) {
+        digest.update(auxpow, offset, Block.HEADER_SIZE);
+        digestTwice(hash);
+    }
+
+    /**
+     * Find the components of the AuxPoW between the given offsets.
+     */
+    private void locate(final byte[] buf, final int offset, final int limit) throws ProtocolException {
+        int cursor = offset;
+        txStart = cursor;
+        cursor = require(buf, cursor, 4, limit);
+        final boolean witness = buf[cursor] == 0;
+        if (witness) {
+            // Segwit marker and flag, detected the same way Transaction.parse() does
+            cursor = require(buf, cursor, 2, limit);
+        }
+        inputsStart = cursor;
+        inputCount = readVarInt(buf, cursor, limit);
+        cursor += varIntSize(buf, cursor);
+        for (long i = 0; i < inputCount; i++) {
+            cursor = require(buf, cursor, 36, limit);
+            final long length = readVarInt(buf, cursor, limit);
+            cursor += varIntSize(buf, cursor);
+            if (i == 0) {
+                scriptStart = cursor;
+                scriptLength = (int) length;
+            }
+            cursor = require(buf, cursor, length + 4, limit);
+        }
+        final long outputCount = readVarInt(buf, cursor, limit);
+        cursor += varIntSize(buf, cursor);
+        for (long i = 0; i < outputCount; i++) {
+            cursor = require(buf, cursor, 8, limit);
+            final long length = readVarInt(buf, cursor, limit);
+            cursor = require(buf, cursor + varIntSize(buf, cursor), length, limit);
+        }
+        outputsEnd = cursor;
+        if (witness) {
+            for (long i = 0; i < inputCount; i++) {
+                final long items = readVarInt(buf, cursor, limit);
+                cursor += varIntSize(buf, cursor);
+                for (long j = 0; j < items; j++) {
+                    final long length = readVarInt(buf, cursor, limit);
+                    cursor = require(buf, cursor + varIntSize(buf, cursor), length, limit);
+                }
+            }
+        }
+        lockTime = cursor;
+        // Lock time, then the parent block hash
+        cursor = require(buf, cursor, 4 + HASH_LENGTH, limit);
+
+        coinbaseBranchSize = readVarInt(buf, cursor, limit);
+        coinbaseBranchStart = cursor + varIntSize(buf, cursor);
+        cursor = require(buf, coinbaseBranchStart, coinbaseBranchSize * HASH_LENGTH + 4, limit);
+        coinbaseBranchIndex = Utils.readUint32(buf, cursor - 4);
+
+        chainBranchSize = readVarInt(buf, cursor, limit);
+        chainBranchStart = cursor + varIntSize(buf, cursor);
+        cursor = require(buf, chainBranchStart, chainBranchSize * HASH_LENGTH + 4, limit);
+        chainBranchIndex = Utils.readUint32(buf, cursor - 4);
+
+        parentHeader = cursor;
+        require(buf, cursor, Block.HEADER_SIZE, limit);
+    }
+
+    /**
+     * Calculate the coinbase transaction ID into the first half of the pair buffer.
+     * Any witness data is excluded, as for {@link Transaction#getTxId()}.
+     */
+    private void hashCoinbase(final byte[] buf) {
+        digest.update(buf, txStart, 4);
+        digest.update(buf, inputsStart, outputsEnd - inputsStart);
+        digest.update(buf, lockTime, 4);
+        digestTwice(pair);
+    }
+
+    /**
+     * Fold the branch at the given offset into the hash in the first half of the
+     * pair buffer, as {@link MerkleBranch#calculateMerkleRoot(Sha256Hash)} does.
+     */
+    private void calculateMerkleRoot(final byte[] buf, final int branchStart, final long size, final long index) {
+        long mask = index;
+        for (int hashIdx = 0; hashIdx < size; hashIdx++) {
+            final int hash = branchStart + hashIdx * HASH_LENGTH;
+            if ((mask & 1) == 0) { // 0 means it goes on the right
+                System.arraycopy(buf, hash, pair, HASH_LENGTH, HASH_LENGTH);
+            } else {
+                System.arraycopy(pair, 0, pair, HASH_LENGTH, HASH_LENGTH);
+                System.arraycopy(buf, hash, pair, 0, HASH_LENGTH);
+            }
+            digest.update(pair, 0, HASH_LENGTH * 2);
+            digestTwice(pair);
+            mask >>= 1;
+        }
+    }
+
+    /**
+     * Complete the current digest, and write the SHA256 hash of the result to the
+     * start of the given array.
+     */
+    private void digestTwice(final byte[] out) {
+        try {
+            digest.digest(out, 0, HASH_LENGTH);
+            digest.update(out, 0, HASH_LENGTH);
+            digest.digest(out, 0, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    /**
+     * Expand the compact difficulty target into the target buffer, as a big-endian
+     * unsigned 256 bit number, following {@link Utils#decodeCompactBits(long)}.
+     *
+     * @return false if the target is negative, in which case no hash can meet it.
+     */
+    private boolean expandTarget(final long compact) {
+        Arrays.fill(target, (byte) 0);
+        final int size = (int) (compact >> 24) & 0xFF;
+        final boolean negative = (compact & 0x00800000L) != 0;
+        final long mantissa = compact & 0x007fffffL;
+        if (negative && mantissa != 0 && size > 0) {
+            // Only the bytes within the size are significant, so the sign may apply to zero
+            if ((mantissa >> (8 * Math.max(0, 3 - size))) != 0) {
+                return false;
+            }
+        }
+        for (int byteIdx = 0; byteIdx < Math.min(size, 3); byteIdx++) {
+            final int value = (int) (mantissa >> (16 - 8 * byteIdx)) & 0xff;
+            // Position counted from the least significant byte
+            final int position = size - 1 - byteIdx;
+            if (position >= HASH_LENGTH) {
+                if (value != 0) {
+                    // Larger than any hash
+                    Arrays.fill(target, (byte) 0xff);
+                    return true;
+                }
+            } else {
+                target[HASH_LENGTH - 1 - position] = (byte) value;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare a little-endian hash against a big-endian value, both unsigned.
+     */
+    private static int compareReversed(final byte[] littleEndian, final byte[] bigEndian) {
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            final int a = littleEndian[HASH_LENGTH - 1 - i] & 0xff;
+            final int b = bigEndian[i] & 0xff;
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean rangeEquals(final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether the bytes at the offset are the given hash in reverse order.
+     */
+    private static boolean reversedEquals(final byte[] buf, final int offset, final byte[] hash) {
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            if (buf[offset + i] != hash[HASH_LENGTH - 1 - i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readIntBE(final byte[] buf, final int offset) {
+        return ((buf[offset] & 0xff) << 24)
+            | ((buf[offset + 1] & 0xff) << 16)
+            | ((buf[offset + 2] & 0xff) << 8)
+            | (buf[offset + 3] & 0xff);
+    }
+
+    /**
+     * Read a variable length integer, checking it lies within the limit.
+     */
+    private static long readVarInt(final byte[] buf, final int offset, final int limit) throws ProtocolException {
+        require(buf, offset, 1, limit);
+        final int first = buf[offset] & 0xff;
+        switch (first) {
+            case 0xfd:
+                require(buf, offset, 3, limit);
+                return (buf[offset + 1] & 0xff) | ((buf[offset + 2] & 0xff) << 8);
+            case 0xfe:
+                require(buf, offset, 5, limit);
+                return Utils.readUint32(buf, offset + 1);
+            case 0xff:
+                require(buf, offset, 9, limit);
+                return Utils.readInt64(buf, offset + 1);
+            default:
+                return first;
+        }
+    }
+
+    /**
+     * Get the size of the variable length integer at the offset, which has already
+     * been read.
+     */
+    private static int varIntSize(final byte[] buf, final int offset) {
+        switch (buf[offset] & 0xff) {
+            case 0xfd:
+                return 3;
+            case 0xfe:
+                return 5;
+            case 0xff:
+                return 9;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Check that <code>length</code> bytes starting at the offset lie within the
+     * limit, and return the offset following them.
+     */
+    private static int require(final byte[] buf, final int offset, final long length, final int limit) throws ProtocolException {
+        if (length < 0 || offset + length > limit || offset + length > buf.length) {
+            throw new ProtocolException("AuxPoW is truncated or malformed");
+        }
+        return (int) (offset + length);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Calculates the roots of many merkle branches together, such as the coinbase
+ * and chain branches of each AuxPoW in a run of headers. Each range of branches
+ * is folded a level at a time on one thread, and larger batches are split
+ * across threads.</p>
+ *
+ * <p>Roots are returned end to end in one array, in the order of the branches.</p>
+ *
+ * <p>A calculator either owns its threads, which {@link #shutdown()} stops, or
+ * runs on a pool shared with other work, which it leaves to its owner.</p>
+ */
+public class BatchMerkleRootCalculator {
+    private static final int HASH_LENGTH = 32;
+    /** Branches folded by a single task rather than split further. */
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    /**
+     * @param parallelism the number of threads to calculate roots on.
+     */
+    public BatchMerkleRootCalculator(final int parallelism) {
+        checkArgument(parallelism > 0, "Parallelism must be positive");
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+    }
+
+    /**
+     * @param pool the pool to calculate roots on, which the caller remains
+     * responsible for shutting down.
+     */
+    public BatchMerkleRootCalculator(final ForkJoinPool pool) {
+        this.pool = pool;
+        this.ownsPool = false;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stop the threads of this calculator, if it created them. Batches already
+     * being calculated are completed, and any later batch is calculated on the
+     * calling thread.
+     */
+    public void shutdown() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Calculate the root of each branch from the leaf at the same position, as
+     * {@link MerkleBranch#calculateMerkleRoot(Sha256Hash)} does.
+     *
+     * @return the roots end to end, each as from {@link Sha256Hash#getBytes()}.
+     */
+    public byte[] calculateMerkleRoots(final Sha256Hash[] leaves, final MerkleBranch[] branches) {
+        checkArgument(leaves.length == branches.length, "Expected a leaf for each branch");
+        if (leaves.length <= SEQUENTIAL_THRESHOLD || pool.getParallelism() == 1) {
+            return MerkleHasher.get().calculateMerkleRoots(leaves, branches);
+        }
+        final byte[] roots = new byte[leaves.length * HASH_LENGTH];
+        try {
+            pool.invoke(new RootTask(leaves, branches, roots, 0, leaves.length));
+        } catch (RejectedExecutionException e) {
+            // Shut down, possibly while this batch was being handed over
+            return MerkleHasher.get().calculateMerkleRoots(leaves, branches);
+        }
+        return roots;
+    }
+
+    /**
+     * @return the root at the given position in an array of roots.
+     */
+    public static Sha256Hash getRoot(final byte[] roots, final int rootIdx) {
+        return Sha256Hash.wrap(Arrays.copyOfRange(roots, rootIdx * HASH_LENGTH, (rootIdx + 1) * HASH_LENGTH));
+    }
+
+    private static class RootTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Sha256Hash[] leaves;
+        private final MerkleBranch[] branches;
+        private final byte[] roots;
+        private final int from;
+        private final int to;
+
+        RootTask(final Sha256Hash[] leaves, final MerkleBranch[] branches, final byte[] roots, final int from,
+                final int to) {
+            this.leaves = leaves;
+            this.branches = branches;
+            this.roots = roots;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                MerkleHasher.get().calculateMerkleRoots(leaves, branches, roots, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new RootTask(leaves, branches, roots, from, middle),
+                    new RootTask(leaves, branches, roots, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Checks the proof of work of a batch of block headers in parallel, ahead of
+ * them being added to the chain one by one. Proof of work (including AuxPoW)
+ * depends only on the header itself, so can be checked independently of the
+ * chain.</p>
+ *
+ * <p>Results are remembered by each {@link AltcoinBlock}, so the check made when
+ * the header is added to the chain is then free. Headers which fail are left
+ * alone; adding them to the chain checks them again and reports the failure as
+ * usual.</p>
+ *
+ * <p>A verifier either owns its threads, which {@link #shutdown()} stops, or runs
+ * on a pool shared with other verifiers, which it leaves to its owner.</p>
+ */
+public class HeaderBatchVerifier {
+    /** Headers checked by a single task rather than split further. */
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    /**
+     * @param parallelism the number of threads to verify headers on.
+     */
+    public HeaderBatchVerifier(final int parallelism) {
+        checkArgument(parallelism > 0, "Parallelism must be positive");
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+    }
+
+    /**
+     * @param pool the pool to verify headers on, which the caller remains
+     * responsible for shutting down.
+     */
+    public HeaderBatchVerifier(final ForkJoinPool pool) {
+        this.pool = pool;
+        this.ownsPool = false;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stop the threads of this verifier, if it created them. Batches already
+     * being verified are completed, and any later batch is verified on the
+     * calling thread.
+     */
+    public void shutdown() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Check the proof of work of each header in the batch, returning once all are
+     * checked.
+     */
+    public void verify(final List<? extends Block> headers) {
+        if (headers.size() <= SEQUENTIAL_THRESHOLD) {
+            verify(headers, 0, headers.size());
+            return;
+        }
+        try {
+            pool.invoke(new VerifyTask(headers, 0, headers.size()));
+        } catch (RejectedExecutionException e) {
+            // Shut down, possibly while this batch was being handed over
+            verify(headers, 0, headers.size());
+        }
+    }
+
+    private static void verify(final List<? extends Block> headers, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            final Block header = headers.get(i);
+            if (header instanceof AltcoinBlock) {
+                try {
+                    ((AltcoinBlock) header).checkProofOfWork(false);
+                } catch (VerificationException e) {
+                    // Reported when the header is added to the chain
+                }
+            }
+        }
+    }
+
+    private static class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends Block> headers;
+        private final int from;
+        private final int to;
+
+        VerifyTask(final List<? extends Block> headers, final int from, final int to) {
+            this.headers = headers;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                verify(headers, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new VerifyTask(headers, from, middle), new VerifyTask(headers, middle, to));
+            }
+        }
+    }
+}
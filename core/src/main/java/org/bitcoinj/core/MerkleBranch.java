@@ -20,9 +20,8 @@ package org.bitcoinj.core;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.security.MessageDigest;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -35,7 +34,8 @@ import java.util.List;
  * the two.
  */
 public class MerkleBranch extends ChildMessage {
-    private static final long serialVersionUID = 2;
+    private static final long serialVersionUID = 3;
+    private static final int HASH_LENGTH = 32;
 
     // Merkle branches can be encoded in a way that will use more bytes than is optimal
     // (due to VarInts having multiple encodings)
@@ -44,14 +44,15 @@ public class MerkleBranch extends ChildMessage {
     // can properly keep track of optimal encoded size
     private transient int optimalEncodingMessageSize;
 
-    private List<Sha256Hash> hashes;
+    // The hashes end to end, each in the byte order they are serialized in
+    private byte[] hashes;
     private long index;
 
     public MerkleBranch(NetworkParameters params, @Nullable ChildMessage parent) {
         super(params);
         setParent(parent);
 
-        this.hashes = new ArrayList<Sha256Hash>();
+        this.hashes = new byte[0];
         this.index = 0;
     }
 
@@ -82,7 +83,7 @@ public class MerkleBranch extends ChildMessage {
         super(params);
         setParent(parent);
 
-        this.hashes = hashes;
+        setHashes(hashes);
         this.index = branchSideMask;
     }
 
@@ -96,13 +97,13 @@ public class MerkleBranch extends ChildMessage {
     protected void parse() throws ProtocolException {
         cursor = offset;
 
-        final int hashCount = (int) readVarInt();
+        final long hashCount = readVarInt();
         optimalEncodingMessageSize += VarInt.sizeOf(hashCount);
-        hashes = new ArrayList<Sha256Hash>(hashCount);
-        for (int hashIdx = 0; hashIdx < hashCount; hashIdx++) {
-            hashes.add(readHash());
+        if (hashCount < 0 || hashCount > MAX_SIZE / HASH_LENGTH) {
+            throw new ProtocolException("Merkle branch too long: " + hashCount);
         }
-        optimalEncodingMessageSize += 32 * hashCount;
+        hashes = readBytes((int) hashCount * HASH_LENGTH);
+        optimalEncodingMessageSize += HASH_LENGTH * hashCount;
         setIndex(readUint32());
         optimalEncodingMessageSize += 4;
         length = cursor - offset;
@@ -110,10 +111,8 @@ public class MerkleBranch extends ChildMessage {
 
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        stream.write(new VarInt(hashes.size()).encode());
-        for (Sha256Hash hash: hashes) {
-                stream.write(Utils.reverseBytes(hash.getBytes()));
-        }
+        stream.write(new VarInt(size()).encode());
+        stream.write(hashes);
         Utils.uint32ToByteStreamLE(index, stream);
     }
 
@@ -122,33 +121,43 @@ public class MerkleBranch extends ChildMessage {
      * Used to verify that the given leaf and root are part of the same tree.
      */
     public Sha256Hash calculateMerkleRoot(final Sha256Hash leaf) {
-        byte[] target = leaf.getReversedBytes();
-        long mask = index;
-        MessageDigest digest = Sha256Hash.newDigest();
-
-        for (Sha256Hash hash: hashes) {
-            digest.reset();
-            if ((mask & 1) == 0) { // 0 means it goes on the right
-                digest.update(target);
-                digest.update(hash.getReversedBytes());
-            } else {
-                digest.update(hash.getReversedBytes());
-                digest.update(target);
+        return MerkleHasher.get().calculateMerkleRoot(leaf, hashes, 0, size(), index);
+    }
+
+    /**
+     * Get the hashes which make up this branch, as a read-only view.
+     */
+    public List<Sha256Hash> getHashes() {
+        return new AbstractList<Sha256Hash>() {
+            @Override
+            public Sha256Hash get(final int hashIdx) {
+                return getHash(hashIdx);
+            }
+
+            @Override
+            public int size() {
+                return MerkleBranch.this.size();
             }
-            // Double-digest the values
-            target = digest.digest();
-            digest.reset();
-            target = digest.digest(target);
-            mask >>= 1;
+        };
+    }
+
+    /**
+     * Get a single hash from this branch.
+     */
+    public Sha256Hash getHash(final int hashIdx) {
+        if (hashIdx < 0 || hashIdx >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + hashIdx + ", Size: " + size());
         }
-        return Sha256Hash.wrapReversed(target);
+        final int offset = hashIdx * HASH_LENGTH;
+        return Sha256Hash.wrapReversed(Arrays.copyOfRange(hashes, offset, offset + HASH_LENGTH));
     }
 
     /**
-     * Get the hashes which make up this branch.
+     * The hashes end to end, in the byte order they are serialized in. Not a
+     * copy, so must not be modified.
      */
-    public List<Sha256Hash> getHashes() {
-        return Collections.unmodifiableList(this.hashes);
+    byte[] getHashBytes() {
+        return hashes;
     }
 
     /**
@@ -161,10 +170,18 @@ public class MerkleBranch extends ChildMessage {
     }
 
     /**
-     * @param hashes the hashes to set
+     * @param hashes the hashes to set. They are copied, and any null entries are
+     * stored as the zero hash.
      */
     public void setHashes(List<Sha256Hash> hashes) {
-        this.hashes = hashes;
+        final byte[] bytes = new byte[hashes.size() * HASH_LENGTH];
+        for (int hashIdx = 0; hashIdx < hashes.size(); hashIdx++) {
+            final Sha256Hash hash = hashes.get(hashIdx);
+            if (hash != null) {
+                System.arraycopy(hash.getReversedBytes(), 0, bytes, hashIdx * HASH_LENGTH, HASH_LENGTH);
+            }
+        }
+        this.hashes = bytes;
     }
 
     /**
@@ -179,7 +196,7 @@ public class MerkleBranch extends ChildMessage {
      * Get the number of hashes in this branch.
      */
     public int size() {
-        return hashes.size();
+        return hashes.length / HASH_LENGTH;
     }
 
     public int getOptimalEncodingMessageSize() {
@@ -206,7 +223,7 @@ public class MerkleBranch extends ChildMessage {
 
         MerkleBranch input = (MerkleBranch) o;
 
-        if (!hashes.equals(input.hashes)) return false;
+        if (!Arrays.equals(hashes, input.hashes)) return false;
         if (index != input.index) return false;
 
         return true;
@@ -215,7 +232,7 @@ public class MerkleBranch extends ChildMessage {
     @Override
     public int hashCode() {
         int result = 1;
-        result = 31 * result + hashes.hashCode();
+        result = 31 * result + Arrays.hashCode(hashes);
         result = 31 * result + (int) index;
         return result;
     }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.libdohj.core.Sha256;
+import org.libdohj.core.Sha256Provider;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Combines pairs of merkle tree nodes, and folds merkle branches into their
+ * root, without allocating for each level. Hashes are reversed into a scratch
+ * buffer as they are read, so the pair is hashed in the internal byte order
+ * without intermediate arrays, and the digest is reused.</p>
+ *
+ * <p>Each thread has its own instance, from {@link #get()}, using a digest from
+ * the current {@link Sha256Provider}. Instances are not thread safe.</p>
+ */
+public final class MerkleHasher {
+    private static final int HASH_LENGTH = 32;
+
+    private static final ThreadLocal<MerkleHasher> INSTANCE = new ThreadLocal<MerkleHasher>() {
+        @Override
+        protected MerkleHasher initialValue() {
+            return new MerkleHasher();
+        }
+    };
+
+    private final Sha256Provider provider = Sha256.getProvider();
+    private final MessageDigest digest = provider.newDigest();
+    /** Pair of hashes being combined, in internal byte order, and the result of combining them. */
+    private final byte[] pair = new byte[HASH_LENGTH * 2];
+
+    private MerkleHasher() {
+    }
+
+    /**
+     * @return the hasher for the current thread.
+     */
+    public static MerkleHasher get() {
+        MerkleHasher hasher = INSTANCE.get();
+        if (hasher.provider != Sha256.getProvider()) {
+            // The provider has changed since this thread's hasher was created
+            hasher = new MerkleHasher();
+            INSTANCE.set(hasher);
+        }
+        return hasher;
+    }
+
+    /**
+     * Calculate the parent of two nodes, as
+     * {@link SuperblockPartialMerkleTree#combineLeftRight(byte[], byte[])} does.
+     *
+     * @param left the left node, as from {@link Sha256Hash#getBytes()}.
+     * @param right the right node, as from {@link Sha256Hash#getBytes()}.
+     */
+    public Sha256Hash combine(final byte[] left, final byte[] right) {
+        reverse(left, 0, pair, 0);
+        reverse(right, 0, pair, HASH_LENGTH);
+        digestPair();
+        return result();
+    }
+
+    /**
+     * Fold a merkle branch into its root, starting from the given leaf, as
+     * {@link MerkleBranch#calculateMerkleRoot(Sha256Hash)} does.
+     *
+     * @param mask the side each hash goes on, lowest bit first. Zero means the
+     * hash goes on the right.
+     */
+    public Sha256Hash calculateMerkleRoot(final Sha256Hash leaf, final List<Sha256Hash> branch, long mask) {
+        reverse(leaf.getBytes(), 0, pair, 0);
+        for (int hashIdx = 0; hashIdx < branch.size(); hashIdx++) {
+            foldLevel(branch.get(hashIdx).getBytes(), mask);
+            mask >>= 1;
+        }
+        return result();
+    }
+
+    /**
+     * Fold a merkle branch held as consecutive hashes in the byte order they are
+     * serialized in, such as by {@link MerkleBranch}, into its root.
+     *
+     * @see #calculateMerkleRoot(Sha256Hash, List, long)
+     */
+    public Sha256Hash calculateMerkleRoot(final Sha256Hash leaf, final byte[] branch, final int offset,
+            final int size, long mask) {
+        reverse(leaf.getBytes(), 0, pair, 0);
+        for (int hashIdx = 0; hashIdx < size; hashIdx++) {
+            final int hash = offset + hashIdx * HASH_LENGTH;
+            if ((mask & 1) == 0) { // 0 means it goes on the right
+                System.arraycopy(branch, hash, pair, HASH_LENGTH, HASH_LENGTH);
+            } else {
+                System.arraycopy(pair, 0, pair, HASH_LENGTH, HASH_LENGTH);
+                System.arraycopy(branch, hash, pair, 0, HASH_LENGTH);
+            }
+            digestPair();
+            mask >>= 1;
+        }
+        return result();
+    }
+
+    /**
+     * Fold many merkle branches into their roots, each from its own leaf.
+     *
+     * @return the roots end to end, each as from {@link Sha256Hash#getBytes()}.
+     * @see BatchMerkleRootCalculator
+     */
+    public byte[] calculateMerkleRoots(final Sha256Hash[] leaves, final MerkleBranch[] branches) {
+        checkArgument(leaves.length == branches.length, "Expected a leaf for each branch");
+        final byte[] roots = new byte[leaves.length * HASH_LENGTH];
+        calculateMerkleRoots(leaves, branches, roots, 0, leaves.length);
+        return roots;
+    }
+
+    /**
+     * Fold the branches in the given range into their roots, writing them to the
+     * matching positions in the roots array. Branches are folded a level at a
+     * time across the whole range.
+     */
+    void calculateMerkleRoots(final Sha256Hash[] leaves, final MerkleBranch[] branches, final byte[] roots,
+            final int from, final int to) {
+        int height = 0;
+        for (int rootIdx = from; rootIdx < to; rootIdx++) {
+            reverse(leaves[rootIdx].getBytes(), 0, roots, rootIdx * HASH_LENGTH);
+            height = Math.max(height, branches[rootIdx].size());
+        }
+        for (int level = 0; level < height; level++) {
+            for (int rootIdx = from; rootIdx < to; rootIdx++) {
+                final MerkleBranch branch = branches[rootIdx];
+                if (level >= branch.size()) {
+                    continue;
+                }
+                final int root = rootIdx * HASH_LENGTH;
+                final byte[] hashes = branch.getHashBytes();
+                // Bits beyond the mask are zero, as MerkleBranch#calculateMerkleRoot shifts them out
+                if (level >= 64 || ((branch.getIndex() >> level) & 1) == 0) { // 0 means it goes on the right
+                    System.arraycopy(roots, root, pair, 0, HASH_LENGTH);
+                    System.arraycopy(hashes, level * HASH_LENGTH, pair, HASH_LENGTH, HASH_LENGTH);
+                } else {
+                    System.arraycopy(hashes, level * HASH_LENGTH, pair, 0, HASH_LENGTH);
+                    System.arraycopy(roots, root, pair, HASH_LENGTH, HASH_LENGTH);
+                }
+                digestPair();
+                System.arraycopy(pair, 0, roots, root, HASH_LENGTH);
+            }
+        }
+        for (int rootIdx = from; rootIdx < to; rootIdx++) {
+            reverse(roots, rootIdx * HASH_LENGTH, pair, 0);
+            System.arraycopy(pair, 0, roots, rootIdx * HASH_LENGTH, HASH_LENGTH);
+        }
+    }
+
+    /**
+     * Combine the hash in the first half of the pair buffer with the given branch
+     * hash, leaving the result in the first half.
+     */
+    private void foldLevel(final byte[] hash, final long mask) {
+        if ((mask & 1) == 0) { // 0 means it goes on the right
+            reverse(hash, 0, pair, HASH_LENGTH);
+        } else {
+            System.arraycopy(pair, 0, pair, HASH_LENGTH, HASH_LENGTH);
+            reverse(hash, 0, pair, 0);
+        }
+        digestPair();
+    }
+
+    /**
+     * Double SHA256 the pair buffer, writing the result to its first half.
+     */
+    private void digestPair() {
+        try {
+            digest.reset();
+            digest.update(pair, 0, HASH_LENGTH * 2);
+            digest.digest(pair, 0, HASH_LENGTH);
+            digest.update(pair, 0, HASH_LENGTH);
+            digest.digest(pair, 0, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    /**
+     * @return the hash in the first half of the pair buffer.
+     */
+    private Sha256Hash result() {
+        final byte[] bytes = new byte[HASH_LENGTH];
+        reverse(pair, 0, bytes, 0);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    private static void reverse(final byte[] src, final int srcOffset, final byte[] dest, final int destOffset) {
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            dest[destOffset + i] = src[srcOffset + HASH_LENGTH - 1 - i];
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Builds a {@link SuperblockPartialMerkleTree} from its leaves in parallel.
+ * The tree is split into subtrees which are hashed concurrently, then their
+ * roots are combined up to the root of the whole tree.</p>
+ *
+ * <p>The result is identical to
+ * {@link SuperblockPartialMerkleTree#buildFromLeaves(NetworkParameters, byte[], List)}.</p>
+ *
+ * <p>A builder either owns its threads, which {@link #shutdown()} stops, or runs
+ * on a pool shared with other work, which it leaves to its owner.</p>
+ */
+public class ParallelSuperblockTreeBuilder {
+    /** Height of the subtrees hashed by a single task rather than split further. */
+    private static final int SEQUENTIAL_HEIGHT = 10;
+
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    /**
+     * @param parallelism the number of threads to hash the tree on.
+     */
+    public ParallelSuperblockTreeBuilder(final int parallelism) {
+        checkArgument(parallelism > 0, "Parallelism must be positive");
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+    }
+
+    /**
+     * @param pool the pool to hash the tree on, which the caller remains
+     * responsible for shutting down.
+     */
+    public ParallelSuperblockTreeBuilder(final ForkJoinPool pool) {
+        this.pool = pool;
+        this.ownsPool = false;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stop the threads of this builder, if it created them. Trees already being
+     * built are completed, and any later tree is built on the calling thread.
+     */
+    public void shutdown() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Calculates a PMT given the list of leaf hashes and which leaves need to be
+     * included.
+     *
+     * @see SuperblockPartialMerkleTree#buildFromLeaves(NetworkParameters, byte[], List)
+     */
+    public SuperblockPartialMerkleTree buildFromLeaves(final NetworkParameters params, final byte[] includeBits,
+            final List<Sha256Hash> allLeafHashes) {
+        final SuperblockPartialMerkleTree.TreeNodes nodes
+            = new SuperblockPartialMerkleTree.TreeNodes(includeBits, allLeafHashes);
+        if (nodes.getHeight() <= SEQUENTIAL_HEIGHT) {
+            nodes.hashSubtree(nodes.getHeight(), 0);
+        } else {
+            try {
+                pool.invoke(new HashTask(nodes, nodes.getHeight(), 0));
+            } catch (RejectedExecutionException e) {
+                // Shut down, possibly while this tree was being handed over
+                nodes.hashSubtree(nodes.getHeight(), 0);
+            }
+        }
+        return nodes.encode(params);
+    }
+
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SuperblockPartialMerkleTree.TreeNodes nodes;
+        private final int height;
+        private final int pos;
+
+        HashTask(final SuperblockPartialMerkleTree.TreeNodes nodes, final int height, final int pos) {
+            this.nodes = nodes;
+            this.height = height;
+            this.pos = pos;
+        }
+
+        @Override
+        protected void compute() {
+            if (height <= SEQUENTIAL_HEIGHT) {
+                nodes.hashSubtree(height, pos);
+                return;
+            }
+            final int left = pos * 2;
+            if (left + 1 < nodes.getWidth(height - 1)) {
+                invokeAll(new HashTask(nodes, height - 1, left), new HashTask(nodes, height - 1, left + 1));
+            } else {
+                new HashTask(nodes, height - 1, left).compute();
+            }
+            // Both subtrees are complete once joined
+            nodes.hashNode(height, pos);
+        }
+    }
+}
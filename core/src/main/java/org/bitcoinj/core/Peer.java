@@ -95,6 +95,11 @@ public class Peer extends PeerSocketHandler {
     private final VersionMessage versionMessage;
     // Maximum depth up to which pending transaction dependencies are downloaded, or 0 for disabled.
     private volatile int vDownloadTxDependencyDepth;
+    // Checks the proof of work of header batches in parallel before they are added to the chain, or null to check
+    // each header as it is added.
+    @Nullable private volatile HeaderBatchVerifier vHeaderVerifier;
+    // Whether this peer created vHeaderVerifier, and so shuts it down.
+    @GuardedBy("lock") private boolean ownsHeaderVerifier;
     // How many block messages the peer has announced to us. Peers only announce blocks that attach to their best chain
     // so we can use this to calculate the height of the peers chain, by adding it to the initial height in the version
     // message. This method can go wrong if the peer re-orgs onto a shorter (but harder) chain, however, this is rare.
@@ -418,6 +423,7 @@ public class Peer extends PeerSocketHandler {
 
     @Override
     public void connectionClosed() {
+        replaceHeaderVerifier(null, false);
         for (final ListenerRegistration<PeerDisconnectedEventListener> registration : disconnectedEventListeners) {
             registration.executor.execute(new Runnable() {
                 @Override
@@ -702,6 +708,20 @@ public class Peer extends PeerSocketHandler {
 
         try {
             checkState(!downloadBlockBodies, toString());
+            final HeaderBatchVerifier headerVerifier = vHeaderVerifier;
+            if (headerVerifier != null) {
+                // Check proof of work up front for the headers the loop below will add, stopping where it is
+                // expected to leave fast catchup; failures are reported as each is added. Headers added beyond
+                // the estimate are checked as they are added, as usual.
+                final List<Block> headers = m.getBlockHeaders();
+                final long headersToTop = vPeerVersionMessage.bestHeight - blockChain.getBestChainHeight();
+                int toVerify = 0;
+                while (toVerify < headers.size() && toVerify < headersToTop
+                        && headers.get(toVerify).getTimeSeconds() < fastCatchupTimeSecs) {
+                    toVerify++;
+                }
+                headerVerifier.verify(headers.subList(0, toVerify));
+            }
             for (int i = 0; i < m.getBlockHeaders().size(); i++) {
                 Block header = m.getBlockHeaders().get(i);
                 // Process headers until we pass the fast catchup time, or are about to catch up with the head
@@ -1893,4 +1913,51 @@ public class Peer extends PeerSocketHandler {
     public void setDownloadTxDependencies(int depth) {
         vDownloadTxDependencyDepth = depth;
     }
+
+    /**
+     * Returns the number of threads used to check the proof of work of downloaded headers, or 1 if each header is
+     * checked as it is added to the chain.
+     */
+    public int getHeaderVerificationParallelism() {
+        final HeaderBatchVerifier headerVerifier = vHeaderVerifier;
+        return headerVerifier == null ? 1 : headerVerifier.getParallelism();
+    }
+
+    /**
+     * Sets the number of threads used to check the proof of work of each batch of headers received from this peer,
+     * before the headers are added to the chain in order. A parallelism of 1 (the default) checks each header as it
+     * is added, on the network thread. The threads belong to this peer, and are stopped when it disconnects; to share
+     * threads between peers, use {@link #setHeaderVerifier(HeaderBatchVerifier)} instead.
+     */
+    public void setHeaderVerificationParallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive");
+        replaceHeaderVerifier(parallelism > 1 ? new HeaderBatchVerifier(parallelism) : null, true);
+    }
+
+    /**
+     * Sets the verifier used to check the proof of work of each batch of headers received from this peer, such as one
+     * shared by all the peers of a {@link PeerGroup}. The verifier belongs to the caller, who remains responsible for
+     * shutting it down. Pass null to check each header as it is added to the chain.
+     */
+    public void setHeaderVerifier(@Nullable HeaderBatchVerifier headerVerifier) {
+        replaceHeaderVerifier(headerVerifier, false);
+    }
+
+    private void replaceHeaderVerifier(@Nullable HeaderBatchVerifier headerVerifier, boolean owned) {
+        final HeaderBatchVerifier replaced;
+        final boolean ownedReplaced;
+        lock.lock();
+        try {
+            replaced = vHeaderVerifier;
+            ownedReplaced = ownsHeaderVerifier;
+            vHeaderVerifier = headerVerifier;
+            ownsHeaderVerifier = owned && headerVerifier != null;
+        } finally {
+            lock.unlock();
+        }
+        if (replaced != null && ownedReplaced) {
+            // A batch it is still verifying is finished on the network thread
+            replaced.shutdown();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>A merkle tree over block hashes which grows a leaf at a time, such as while
+ * blocks are connected for a superblock. The tree is the one
+ * {@link SuperblockPartialMerkleTree#buildFromLeaves(NetworkParameters, byte[], List)}
+ * builds over the same leaves, with the last node of a level paired with itself
+ * where the level is odd.</p>
+ *
+ * <p>Each node whose subtree is full is hashed once, as its last leaf is added,
+ * and kept. Only the nodes on the right frontier of the tree depend on leaves
+ * yet to come, so the root, or a proof for any leaf, hashes at most one node per
+ * level.</p>
+ *
+ * <p>Instances of this class are not safe for use by multiple threads.</p>
+ */
+public class SuperblockMerkleAccumulator {
+    // Hashes of the nodes with full subtrees, by height. Height 0 holds the leaves.
+    private final List<List<Sha256Hash>> levels = new ArrayList<List<Sha256Hash>>();
+
+    public SuperblockMerkleAccumulator() {
+        levels.add(new ArrayList<Sha256Hash>());
+    }
+
+    /**
+     * Append a leaf to the tree, hashing each node it completes.
+     */
+    public void add(final Sha256Hash leaf) {
+        levels.get(0).add(leaf);
+        for (int height = 0; levels.get(height).size() % 2 == 0; height++) {
+            final List<Sha256Hash> level = levels.get(height);
+            final Sha256Hash parent = SuperblockPartialMerkleTree.combineLeftRight(
+                level.get(level.size() - 2).getBytes(), level.get(level.size() - 1).getBytes());
+            if (levels.size() == height + 1) {
+                levels.add(new ArrayList<Sha256Hash>());
+            }
+            levels.get(height + 1).add(parent);
+        }
+    }
+
+    public int getLeafCount() {
+        return levels.get(0).size();
+    }
+
+    public Sha256Hash getLeaf(final int index) {
+        return levels.get(0).get(index);
+    }
+
+    /**
+     * @return the merkle root of the leaves added so far.
+     * @throws IllegalStateException if no leaves have been added.
+     */
+    public Sha256Hash getRoot() {
+        checkState(getLeafCount() > 0, "No leaves added");
+        return getNodeHash(getHeight(), 0);
+    }
+
+    /**
+     * Build a proof that the given leaf is in the tree, as
+     * {@link SuperblockPartialMerkleTree#buildFromLeaves(NetworkParameters, byte[], List)}
+     * would with only that leaf included.
+     *
+     * @param index the position of the leaf, in the order added.
+     */
+    public SuperblockPartialMerkleTree buildProof(final NetworkParameters params, final int index) {
+        checkElementIndex(index, getLeafCount());
+        final int height = getHeight();
+        // One bit per node on the path from the root, and per sibling of those
+        final byte[] bits = new byte[(2 * height + 1 + 7) / 8];
+        final List<Sha256Hash> hashes = new ArrayList<Sha256Hash>(height + 1);
+        final int bitCount = encodePath(height, index, bits, 0, hashes);
+        return new SuperblockPartialMerkleTree(params, Arrays.copyOf(bits, (bitCount + 7) / 8), hashes,
+            getLeafCount());
+    }
+
+    /**
+     * Write the flag bits and hashes for the subtree under the given node, in
+     * depth-first order, descending only towards the given leaf.
+     *
+     * @return the number of bits used.
+     */
+    private int encodePath(final int height, final int leafIndex, final byte[] bits, int bitCount,
+            final List<Sha256Hash> hashes) {
+        // This node is a parent of the matched leaf, or the leaf itself
+        Utils.setBitLE(bits, bitCount++);
+        if (height == 0) {
+            hashes.add(getLeaf(leafIndex));
+            return bitCount;
+        }
+        final int child = leafIndex >> (height - 1);
+        final int left = child & ~1;
+        if (child == left) {
+            bitCount = encodePath(height - 1, leafIndex, bits, bitCount, hashes);
+            if (left + 1 < getWidth(height - 1)) {
+                // Unmatched sibling: its bit is left clear
+                bitCount++;
+                hashes.add(getNodeHash(height - 1, left + 1));
+            }
+        } else {
+            bitCount++;
+            hashes.add(getNodeHash(height - 1, left));
+            bitCount = encodePath(height - 1, leafIndex, bits, bitCount, hashes);
+        }
+        return bitCount;
+    }
+
+    /**
+     * @return the hash of the given node, hashing it from its children if its
+     * subtree is not yet full.
+     */
+    private Sha256Hash getNodeHash(final int height, final int pos) {
+        if (height < levels.size() && pos < levels.get(height).size()) {
+            return levels.get(height).get(pos);
+        }
+        // On the right frontier, so at most one such node per level
+        final Sha256Hash left = getNodeHash(height - 1, pos * 2);
+        final Sha256Hash right = pos * 2 + 1 < getWidth(height - 1) ? getNodeHash(height - 1, pos * 2 + 1) : left;
+        return SuperblockPartialMerkleTree.combineLeftRight(left.getBytes(), right.getBytes());
+    }
+
+    private int getHeight() {
+        int height = 0;
+        while (getWidth(height) > 1)
+            height++;
+        return height;
+    }
+
+    private int getWidth(final int height) {
+        return (getLeafCount() + (1 << height) - 1) >> height;
+    }
+}
@@ -20,10 +20,14 @@ package org.bitcoinj.core;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.bitcoinj.core.Utils.*;
 import com.google.common.base.Objects;
@@ -68,6 +72,9 @@ public class SuperblockPartialMerkleTree extends Message {
     // txids and internal hashes
     private List<Sha256Hash> hashes;
 
+    // index and path of each matched txid, built on first lookup; cleared when the tree is parsed again
+    private Map<Sha256Hash, TransactionProof> proofs;
+
     public SuperblockPartialMerkleTree(NetworkParameters params, byte[] payloadBytes, int offset) throws ProtocolException {
         super(params, payloadBytes, offset);
     }
@@ -88,18 +95,122 @@ public class SuperblockPartialMerkleTree extends Message {
      * are calculated and a new PMT returned.
      */
     public static SuperblockPartialMerkleTree buildFromLeaves(NetworkParameters params, byte[] includeBits, List<Sha256Hash> allLeafHashes) {
-        // Calculate height of the tree.
-        int height = 0;
-        while (getTreeWidth(allLeafHashes.size(), height) > 1)
-            height++;
-        List<Boolean> bitList = new ArrayList<Boolean>();
-        List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
-        traverseAndBuild(height, 0, allLeafHashes, includeBits, bitList, hashes);
-        byte[] bits = new byte[(int)Math.ceil(bitList.size() / 8.0)];
-        for (int i = 0; i < bitList.size(); i++)
-            if (bitList.get(i))
-                Utils.setBitLE(bits, i);
-        return new SuperblockPartialMerkleTree(params, bits, hashes, allLeafHashes.size());
+        TreeNodes nodes = new TreeNodes(includeBits, allLeafHashes);
+        nodes.hashSubtree(nodes.getHeight(), 0);
+        return nodes.encode(params);
+    }
+
+    /**
+     * <p>The hashes of the nodes of a tree being built, held a level at a time. The encoding never includes the hash
+     * of an interior node which is the parent of a matched leaf, so those are left null, and each other node is hashed
+     * exactly once from the level below.</p>
+     *
+     * <p>Distinct subtrees may be hashed on different threads, as long as each is complete before its parent is
+     * hashed.</p>
+     */
+    static final class TreeNodes {
+        private final byte[] includeBits;
+        private final List<Sha256Hash> leaves;
+        private final int height;
+        // Interior node hashes by height, null where a node is the parent of a match. Leaves are not copied.
+        private final Sha256Hash[][] levels;
+
+        TreeNodes(byte[] includeBits, List<Sha256Hash> leaves) {
+            this.includeBits = includeBits;
+            this.leaves = leaves;
+            // Calculate height of the tree.
+            int height = 0;
+            while (getTreeWidth(leaves.size(), height) > 1)
+                height++;
+            this.height = height;
+            this.levels = new Sha256Hash[height + 1][];
+            for (int h = 1; h <= height; h++)
+                levels[h] = new Sha256Hash[getWidth(h)];
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        int getWidth(int height) {
+            return getTreeWidth(leaves.size(), height);
+        }
+
+        /**
+         * Hashes the nodes of the subtree under, and including, the given node, working up a level at a time.
+         */
+        void hashSubtree(int height, int pos) {
+            for (int h = 1; h <= height; h++) {
+                int end = Math.min((pos + 1) << (height - h), getWidth(h));
+                for (int p = pos << (height - h); p < end; p++)
+                    hashNode(h, p);
+            }
+        }
+
+        /**
+         * Hashes an interior node from its children, unless it is the parent of a match.
+         */
+        void hashNode(int height, int pos) {
+            int left = pos * 2;
+            // Copy the left child if the right is beyond the end of the level.
+            int right = left + 1 < getWidth(height - 1) ? left + 1 : left;
+            if (isParentOfMatch(height - 1, left) || isParentOfMatch(height - 1, right))
+                return;
+            byte[] leftHash = getHash(height - 1, left).getBytes();
+            byte[] rightHash = right == left ? leftHash : getHash(height - 1, right).getBytes();
+            levels[height][pos] = combineLeftRight(leftHash, rightHash);
+        }
+
+        private boolean isParentOfMatch(int height, int pos) {
+            return height == 0 ? checkBitLE(includeBits, pos) : levels[height][pos] == null;
+        }
+
+        private Sha256Hash getHash(int height, int pos) {
+            return height == 0 ? leaves.get(pos) : levels[height][pos];
+        }
+
+        /**
+         * Writes out the flag bits and hashes in depth-first order, as CPartialMerkleTree::TraverseAndBuild in
+         * Bitcoin Core does. All nodes must have been hashed.
+         */
+        SuperblockPartialMerkleTree encode(NetworkParameters params) {
+            // There is at most one bit per node, and never more than height+1 nodes waiting on the stack.
+            int nodeCount = 0;
+            for (int h = 0; h <= height; h++)
+                nodeCount += getWidth(h);
+            byte[] bits = new byte[(nodeCount + 7) / 8];
+            int bitCount = 0;
+            List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+            int[] stackHeight = new int[height + 1];
+            int[] stackPos = new int[height + 1];
+            int top = 0;
+            stackHeight[top] = height;
+            stackPos[top++] = 0;
+            while (top > 0) {
+                top--;
+                int h = stackHeight[top];
+                int pos = stackPos[top];
+                boolean match = isParentOfMatch(h, pos);
+                if (match)
+                    setBitLE(bits, bitCount);
+                bitCount++;
+                if (h == 0 || !match) {
+                    // If at height 0, or nothing interesting below, store hash and stop.
+                    hashes.add(getHash(h, pos));
+                } else {
+                    // Otherwise descend into the subtrees, left first.
+                    int p = pos * 2;
+                    if (p + 1 < getWidth(h - 1)) {
+                        stackHeight[top] = h - 1;
+                        stackPos[top++] = p + 1;
+                    }
+                    stackHeight[top] = h - 1;
+                    stackPos[top++] = p;
+                }
+            }
+            return new SuperblockPartialMerkleTree(params, Arrays.copyOf(bits, (bitCount + 7) / 8), hashes,
+                    leaves.size());
+        }
     }
 
     @Override
@@ -125,54 +236,11 @@ public class SuperblockPartialMerkleTree extends Message {
 
         int nFlagBytes = (int) readVarInt();
         matchedChildBits = readBytes(nFlagBytes);
+        proofs = null;
 
         length = cursor - offset;
     }
 
-    // Based on CPartialMerkleTree::TraverseAndBuild in Bitcoin Core.
-    private static void traverseAndBuild(int height, int pos, List<Sha256Hash> allLeafHashes, byte[] includeBits,
-                                         List<Boolean> matchedChildBits, List<Sha256Hash> resultHashes) {
-        boolean parentOfMatch = false;
-        // Is this node a parent of at least one matched hash?
-        for (int p = pos << height; p < (pos+1) << height && p < allLeafHashes.size(); p++) {
-            if (Utils.checkBitLE(includeBits, p)) {
-                parentOfMatch = true;
-                break;
-            }
-        }
-        // Store as a flag bit.
-        matchedChildBits.add(parentOfMatch);
-        if (height == 0 || !parentOfMatch) {
-            // If at height 0, or nothing interesting below, store hash and stop.
-            resultHashes.add(calcHash(height, pos, allLeafHashes));
-        } else {
-            // Otherwise descend into the subtrees.
-            int h = height - 1;
-            int p = pos * 2;
-            traverseAndBuild(h, p, allLeafHashes, includeBits, matchedChildBits, resultHashes);
-            if (p + 1 < getTreeWidth(allLeafHashes.size(), h))
-                traverseAndBuild(h, p + 1, allLeafHashes, includeBits, matchedChildBits, resultHashes);
-        }
-    }
-
-    private static Sha256Hash calcHash(int height, int pos, List<Sha256Hash> hashes) {
-        if (height == 0) {
-            // Hash at height 0 is just the regular tx hash itself.
-            return hashes.get(pos);
-        }
-        int h = height - 1;
-        int p = pos * 2;
-        Sha256Hash left = calcHash(h, p, hashes);
-        // Calculate right hash if not beyond the end of the array - copy left hash otherwise.
-        Sha256Hash right;
-        if (p + 1 < getTreeWidth(hashes.size(), h)) {
-            right = calcHash(h, p + 1, hashes);
-        } else {
-            right = left;
-        }
-        return combineLeftRight(left.getBytes(), right.getBytes());
-    }
-
     // helper function to efficiently calculate the number of nodes at given height in the merkle tree
     private static int getTreeWidth(int transactionCount, int height) {
         return (transactionCount + (1 << height) - 1) >> height;
@@ -216,7 +284,7 @@ public class SuperblockPartialMerkleTree extends Message {
     }
 
     public static Sha256Hash combineLeftRight(byte[] left, byte[] right) {
-        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(reverseBytes(left), reverseBytes(right)));
+        return MerkleHasher.get().combine(left, right);
     }
 
     /**
@@ -291,97 +359,61 @@ public class SuperblockPartialMerkleTree extends Message {
      * Returns the position of a tx within a block
      */
     public int getTransactionIndex(Sha256Hash txHash) {
-        if (!hashes.contains(txHash)) {
-            throw new VerificationException("Supplied tx hash is not in this tree: " + txHash);
-        }
-        // calculate height of tree
-        int height = 0;
-        while (getTreeWidth(transactionCount, height) > 1)
-            height++;
-        // traverse the partial tree
-        ValuesUsed used = new ValuesUsed();
-        GetTransactionIndexResult result = new GetTransactionIndexResult();
-        recursiveGetTransactionIndex(height, 0, used, txHash, result);
-        if (!result.found) {
-            throw new VerificationException("Could not find tx");
-        }
-        return result.counter;
+        return getTransactionProof(txHash).getIndex();
     }
 
-    private void recursiveGetTransactionIndex(int height, int pos, ValuesUsed used, Sha256Hash txHash, GetTransactionIndexResult result) throws VerificationException {
-        if (result.found) return;
-        if (used.bitsUsed >= matchedChildBits.length*8) {
-            // overflowed the bits array - failure
-            throw new VerificationException("PartialMerkleTree overflowed its bits array");
-        }
-        boolean parentOfMatch = checkBitLE(matchedChildBits, used.bitsUsed++);
-        if (height == 0 || !parentOfMatch) {
-            // if at height 0, or nothing interesting below, use stored hash and do not descend
-            if (used.hashesUsed >= hashes.size()) {
-                // overflowed the hash array - failure
-                throw new VerificationException("PartialMerkleTree overflowed its hash array");
-            }
-            Sha256Hash hash = hashes.get(used.hashesUsed++);
-            if (hash.equals(txHash))
-                // We found the tx we were looking for
-                if (parentOfMatch)
-                    // no need to increase counter
-                    result.found = true;
-                else
-                    // We found the tx hash but it is included in the tree just to be able to calculate the proof of another tx.
-                    throw new VerificationException("Could not find tx");
-            else if (height == 0)
-                // in case of height 0, we have a txid (matched or not)
-                // This is another tx that is before the tx we are looking for
-                result.counter++;
-            else
-                // !parentOfMatch is true
-                // We found an incomplete branch, calculate how many leaves the full tree has bellow this node.
-                result.counter += BigInteger.valueOf(2).pow(height).intValue();
-        } else {
-            // otherwise, descend into the subtrees to extract matched txids and hashes
-            recursiveGetTransactionIndex(height - 1, pos * 2, used, txHash, result);
-            if (pos * 2 + 1 < getTreeWidth(transactionCount, height-1)) {
-                // right tree has real content
-                recursiveGetTransactionIndex(height - 1, pos * 2 + 1, used, txHash, result);
-            }
-        }
+    /**
+     * Get the path of sibling nodes from the supplied tx to the root (tree root not included)
+     */
+    public List<Sha256Hash> getTransactionPath(Sha256Hash txHash) {
+        return new ArrayList<Sha256Hash>(getTransactionProof(txHash).getPath());
     }
 
-    private static class GetTransactionIndexResult {
-        public int counter = 0;
-        public boolean found = false;
+    /**
+     * Returns the position within the block of each of the supplied txs, and the path of sibling nodes from each to
+     * the root (tree root not included).
+     *
+     * @return the position and path of each tx, keyed by tx hash, in the order supplied
+     * @throws VerificationException if any tx is not a matched tx in this tree
+     */
+    public Map<Sha256Hash, TransactionProof> getTransactionProofs(Collection<Sha256Hash> txHashes) throws VerificationException {
+        Map<Sha256Hash, TransactionProof> result = new LinkedHashMap<Sha256Hash, TransactionProof>();
+        for (Sha256Hash txHash : txHashes)
+            result.put(txHash, getTransactionProof(txHash));
+        return result;
     }
 
+    private TransactionProof getTransactionProof(Sha256Hash txHash) throws VerificationException {
+        if (proofs == null)
+            proofs = extractTransactionProofs();
+        TransactionProof proof = proofs.get(txHash);
+        if (proof == null) {
+            if (!hashes.contains(txHash))
+                throw new VerificationException("Supplied tx hash is not in this tree: " + txHash);
+            // The tx hash is included in the tree just to be able to calculate the proof of another tx.
+            throw new VerificationException("Could not find tx");
+        }
+        return proof;
+    }
 
-    /**
-     * Get the path of sibling nodes from the supplied tx to the root (tree root not included)
+    /*
+     * Find the position and path of every matched tx in a single traversal of the tree.
      */
-    public List<Sha256Hash> getTransactionPath(Sha256Hash txHash) {
-        if (!hashes.contains(txHash)) {
-            throw new VerificationException("Supplied tx hash is not in this tree: " + txHash);
-        }
+    private Map<Sha256Hash, TransactionProof> extractTransactionProofs() throws VerificationException {
         // calculate height of tree
         int height = 0;
         while (getTreeWidth(transactionCount, height) > 1)
             height++;
-        ValuesUsed used = new ValuesUsed();
-        List<Sha256Hash> matchedHashes = new ArrayList<Sha256Hash>();
-        GetTransactionPathResult result = recursiveGetTransactionPath(height, 0, used, txHash, matchedHashes);
-        if (!result.found) {
-            throw new VerificationException("Could not find tx");
-        }
-        return matchedHashes;
-
+        ProofSearch search = new ProofSearch();
+        recursiveGetTransactionProofs(height, 0, new ValuesUsed(), search);
+        return search.proofs;
     }
 
     /*
-     * Traverse the tree recursively and add hashes to matchedHashes as we find hashes that are part of the path.
-     * GetTransactionPathResult.found is true when the node being evaluated is txHash or txHash is bellow this node. False otherwise.
-     * GetTransactionPathResult.hash is the hash of the node being evaluated.
+     * Traverse the tree recursively, recording the position of each matched tx as it is reached, and adding to its
+     * path the sibling of each node above it on the way back up. Returns the hash of the node being evaluated.
      */
-    private GetTransactionPathResult recursiveGetTransactionPath(int height, int pos, ValuesUsed used, Sha256Hash txHash, List<Sha256Hash> matchedHashes) throws VerificationException {
-        GetTransactionPathResult result = new GetTransactionPathResult();
+    private Sha256Hash recursiveGetTransactionProofs(int height, int pos, ValuesUsed used, ProofSearch search) throws VerificationException {
         if (used.bitsUsed >= matchedChildBits.length*8) {
             // overflowed the bits array - failure
             throw new VerificationException("PartialMerkleTree overflowed its bits array");
@@ -394,58 +426,60 @@ public class SuperblockPartialMerkleTree extends Message {
                 throw new VerificationException("PartialMerkleTree overflowed its hash array");
             }
             Sha256Hash hash = hashes.get(used.hashesUsed++);
-            if (hash.equals(txHash)) {
-                // We found txHash
-                if (parentOfMatch) {
-                    result.found = true;
-                    result.hash = hash;
-                    return result;
-                } else {
-                    // We found the tx hash but it is included in the tree just to be able to calculate the proof of another tx.
-                    throw new VerificationException("Could not find tx");
-                }
-            } else if (height == 0) {
-                // This is a tx, but is not txHash
-                result.hash = hash;
-                return result;
-            } else {
-                // !parentOfMatch is true
-                // We found an incomplete branch
-                result.hash = hash;
-                return result;
+            // in case of height 0, we have a matched txid; keep the first if it appears twice
+            if (parentOfMatch && !search.proofs.containsKey(hash)) {
+                TransactionProof proof = new TransactionProof(search.leavesBefore);
+                search.proofs.put(hash, proof);
+                search.found.add(proof);
             }
+            // count the leaves at or below this node
+            search.leavesBefore += 1 << height;
+            return hash;
         } else {
-            // otherwise, descend into the subtrees to extract matched txids and hashes
-            GetTransactionPathResult left = recursiveGetTransactionPath(height - 1, pos * 2, used, txHash, matchedHashes);
-            GetTransactionPathResult right;
+            // otherwise, descend into the subtrees, noting which of the found txs are below each
+            int firstLeft = search.found.size();
+            Sha256Hash left = recursiveGetTransactionProofs(height - 1, pos * 2, used, search);
+            int firstRight = search.found.size();
+            Sha256Hash right;
             if (pos * 2 + 1 < getTreeWidth(transactionCount, height-1)) {
                 // right tree has real content
-                right = recursiveGetTransactionPath(height - 1, pos * 2 + 1, used, txHash, matchedHashes);
-            } else {
-                right = new GetTransactionPathResult();
-                // don't copy left.found
-                right.hash = left.hash;
-            }
-            Sha256Hash thisNode = combineLeftRight(left.hash.getBytes(), right.hash.getBytes());
-            result.hash = thisNode;
-            if (left.found || right.found) {
-                // txHash is bellow this node, add to matchedHashes the "opposite" hash.
-                result.found = true;
-                if (left.found) {
-                    matchedHashes.add(right.hash);
-                } else {
-                    matchedHashes.add(left.hash);
-                }
-                return result;
+                right = recursiveGetTransactionProofs(height - 1, pos * 2 + 1, used, search);
             } else {
-                // txHash is not bellow this node, nothing to add to matchedHashes.
-                return result;
+                right = left;
             }
+            // add the "opposite" hash to the path of each tx below this node
+            for (int i = firstLeft; i < firstRight; i++)
+                search.found.get(i).path.add(right);
+            for (int i = firstRight; i < search.found.size(); i++)
+                search.found.get(i).path.add(left);
+            return combineLeftRight(left.getBytes(), right.getBytes());
         }
     }
 
-    private static class GetTransactionPathResult {
-        public Sha256Hash hash;
-        public boolean found = false;
+    private static class ProofSearch {
+        public final Map<Sha256Hash, TransactionProof> proofs = new HashMap<Sha256Hash, TransactionProof>();
+        // proofs in the order their txs were reached
+        public final List<TransactionProof> found = new ArrayList<TransactionProof>();
+        public int leavesBefore = 0;
+    }
+
+    /**
+     * The position of a tx within a block, and the path of sibling nodes from it to the root (tree root not included).
+     */
+    public static class TransactionProof {
+        private final int index;
+        private final List<Sha256Hash> path = new ArrayList<Sha256Hash>();
+
+        TransactionProof(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public List<Sha256Hash> getPath() {
+            return Collections.unmodifiableList(path);
+        }
     }
 }
@@ -19,8 +19,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.channels.GatheringByteChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.bitcoinj.core.Utils.HEX;
 
@@ -29,73 +31,169 @@ import static org.bitcoinj.core.Utils.HEX;
  */
 public class AltcoinSerializer extends BitcoinSerializer {
     private static final Logger log = LoggerFactory.getLogger(AltcoinSerializer.class);
+    private static final MessageRegistry defaultRegistry = new MessageRegistry();
+
+    static {
+        registerStandardMessages(defaultRegistry);
+    }
+
+    private final MessageRegistry registry;
+    private final boolean lazyAuxPoW;
+
     public AltcoinSerializer(NetworkParameters params, boolean parseRetain) {
-        super(params, parseRetain);
+        this(params, parseRetain, false);
     }
 
-    private static final Map<Class<? extends Message>, String> names = new HashMap<Class<? extends Message>, String>();
+    /**
+     * @param lazyAuxPoW whether blocks should defer parsing their AuxPoW until it is
+     * first needed. See {@link #isLazyAuxPoW()}.
+     */
+    public AltcoinSerializer(NetworkParameters params, boolean parseRetain, boolean lazyAuxPoW) {
+        this(params, parseRetain, lazyAuxPoW, defaultRegistry);
+    }
 
-    static {
-        names.put(VersionMessage.class, "version");
-        names.put(InventoryMessage.class, "inv");
-        names.put(Block.class, "block");
-        names.put(GetDataMessage.class, "getdata");
-        names.put(Transaction.class, "tx");
-        names.put(AddressMessage.class, "addr");
-        names.put(Ping.class, "ping");
-        names.put(Pong.class, "pong");
-        names.put(VersionAck.class, "verack");
-        names.put(GetBlocksMessage.class, "getblocks");
-        names.put(GetHeadersMessage.class, "getheaders");
-        names.put(GetAddrMessage.class, "getaddr");
-        names.put(HeadersMessage.class, "headers");
-        names.put(BloomFilter.class, "filterload");
-        names.put(FilteredBlock.class, "merkleblock");
-        names.put(NotFoundMessage.class, "notfound");
-        names.put(MemoryPoolMessage.class, "mempool");
-        names.put(RejectMessage.class, "reject");
-        names.put(GetUTXOsMessage.class, "getutxos");
-        names.put(UTXOsMessage.class, "utxos");
-        names.put(SendHeadersMessage.class, "sendheaders");
-        // SYSCOIN specific
-        names.put(MasternodeBroadcast.class, "mnb");
-        names.put(MasternodePing.class, "mnp");
-        names.put(MasternodePing.class, "dseg");
-        names.put(MasternodePaymentVote.class, "mnw");
-        names.put(MasternodeVerification.class, "mnv");
-        names.put(SporkMessage.class, "spork");
-        names.put(GetSporksMessage.class, "getsporks");
-        names.put(SyncStatusCount.class, "ssc");
-        names.put(GovernanceSyncMessage.class, "govsync");
-        names.put(GovernanceObject.class, "govobj");
-        names.put(GovernanceVote.class, "govobjvote");
-        names.put(MasternodePaymentVote.class, "mnget");
+    /**
+     * @param registry the message types to deserialize. Use
+     * {@link #registerStandardMessages(MessageRegistry)} to start from the standard types.
+     */
+    public AltcoinSerializer(NetworkParameters params, boolean parseRetain, MessageRegistry registry) {
+        this(params, parseRetain, false, registry);
+    }
+
+    public AltcoinSerializer(NetworkParameters params, boolean parseRetain, boolean lazyAuxPoW,
+            MessageRegistry registry) {
+        super(params, parseRetain);
+        this.registry = registry;
+        this.lazyAuxPoW = lazyAuxPoW;
     }
 
+    /**
+     * Whether blocks parsed by this serializer only locate their AuxPoW, keeping its
+     * raw bytes, and parse it in full the first time it is accessed. This saves
+     * building the parent coinbase transaction, merkle branches and parent header
+     * for blocks whose proof of work is never checked, such as headers reloaded
+     * from a store.
+     */
+    public boolean isLazyAuxPoW() {
+        return lazyAuxPoW;
+    }
+
+    /** Size of the magic, command, length and checksum preceding each payload. */
+    private static final int PACKET_HEADER_LENGTH = 4 + BitcoinPacketHeader.HEADER_LENGTH;
+    private static final int COMMAND_LEN = 12;
+
+    /** Largest payload copied into a per-thread buffer rather than a fresh array. */
+    private static final int MAX_POOLED_PAYLOAD_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> payloadBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[0];
+        }
+    };
+
     /**
      * Writes message to to the output stream.
      */
     @Override
     public void serialize(Message message, OutputStream out) throws IOException {
-        String name = names.get(message.getClass());
+        String name = registry.getCommand(message.getClass());
         if (name == null) {
             throw new Error("AltcoinSerializer doesn't currently know how to serialize " + message.getClass());
         }
-        super.serialize(name, message.bitcoinSerialize(), out);
+        serialize(name, message.bitcoinSerialize(), out);
+    }
+
+    /**
+     * Writes message to to the output stream, with a header as
+     * {@link BitcoinSerializer#serialize(String, byte[], OutputStream)} writes it,
+     * the checksum being calculated by the configured {@link Sha256Provider}.
+     */
+    @Override
+    public void serialize(String name, byte[] message, OutputStream out) throws IOException {
+        byte[] header = new byte[PACKET_HEADER_LENGTH];
+        Utils.uint32ToByteArrayBE(getParameters().getPacketMagic(), header, 0);
+        for (int i = 0; i < name.length() && i < COMMAND_LEN; i++) {
+            header[4 + i] = (byte) (name.codePointAt(i) & 0xFF);
+        }
+        Utils.uint32ToByteArrayLE(message.length, header, 4 + COMMAND_LEN);
+        byte[] hash = Sha256.hashTwice(message);
+        System.arraycopy(hash, 0, header, 4 + COMMAND_LEN + 4, 4);
+        out.write(header);
+        out.write(message);
+    }
+
+    /**
+     * Writes a batch of messages to the channel. The messages are serialized directly
+     * into pooled direct buffers, with each header's length and checksum filled in
+     * once its payload has been written, and the whole batch is then handed to the
+     * channel in a single gathering write. The channel is expected to be blocking.
+     */
+    public void serialize(List<? extends Message> messages, GatheringByteChannel channel) throws IOException {
+        final MessageDigest digest = Sha256.newDigest();
+        final DirectBufferOutputStream out = new DirectBufferOutputStream();
+        try {
+            for (Message message : messages) {
+                final String name = registry.getCommand(message.getClass());
+                if (name == null) {
+                    throw new Error("AltcoinSerializer doesn't currently know how to serialize " + message.getClass());
+                }
+                final DirectBufferOutputStream.Mark header = out.reserve(PACKET_HEADER_LENGTH);
+                final ByteBuffer headerBuffer = out.segment(header);
+                headerBuffer.putInt((int) getParameters().getPacketMagic());
+                for (int i = 0; i < COMMAND_LEN; i++) {
+                    headerBuffer.put(i < name.length() ? (byte) name.charAt(i) : 0);
+                }
+                // Length and checksum are filled in once the payload is known
+                headerBuffer.position(header.position + PACKET_HEADER_LENGTH);
+
+                final DirectBufferOutputStream.Mark start = out.mark();
+                message.bitcoinSerialize(out);
+                final DirectBufferOutputStream.Mark end = out.mark();
+
+                out.digest(digest, start, end);
+                final byte[] hash = digest.digest(digest.digest());
+                headerBuffer.putInt(header.position + 4 + COMMAND_LEN,
+                    Integer.reverseBytes((int) out.distance(start, end)));
+                for (int i = 0; i < 4; i++) {
+                    headerBuffer.put(header.position + 8 + COMMAND_LEN + i, hash[i]);
+                }
+            }
+            out.writeTo(channel);
+        } finally {
+            out.close();
+        }
     }
 
     /**
      * Deserialize payload only.  You must provide a header, typically obtained by calling
      * {@link AltcoinSerializer#deserializeHeader}.
+     *
+     * <p>Where the buffer is backed by an array, the checksum is verified and blocks and
+     * transactions are parsed directly from that array rather than from a copy of the
+     * payload. The array is only shared with the resulting message when it is not going
+     * to be retained, or when the buffer holds exactly this one payload.</p>
      */
     @Override
     public Message deserializePayload(BitcoinSerializer.BitcoinPacketHeader header, ByteBuffer in) throws ProtocolException, BufferUnderflowException {
-        byte[] payloadBytes = new byte[header.size];
-        in.get(payloadBytes, 0, header.size);
+        final byte[] payloadBytes;
+        final int payloadOffset;
+        if (in.remaining() < header.size) {
+            throw new BufferUnderflowException();
+        }
+        if (in.hasArray() && canShare(in, header.size)) {
+            payloadBytes = in.array();
+            payloadOffset = in.arrayOffset() + in.position();
+            in.position(in.position() + header.size);
+        } else {
+            payloadBytes = payloadBuffer(header.size);
+            payloadOffset = 0;
+            in.get(payloadBytes, 0, header.size);
+        }
 
         // Verify the checksum.
         byte[] hash;
-        hash = Sha256Hash.hashTwice(payloadBytes);
+        hash = Sha256.hashTwice(payloadBytes, payloadOffset, header.size);
         if (header.checksum[0] != hash[0] || header.checksum[1] != hash[1] ||
                 header.checksum[2] != hash[2] || header.checksum[3] != hash[3]) {
             throw new ProtocolException("Checksum failed to verify, actual " +
@@ -105,88 +203,318 @@ public class AltcoinSerializer extends BitcoinSerializer {
 
 
         try {
-            return makeMessage(header.command, header.size, payloadBytes, hash, header.checksum);
+            return makeMessage(header, payloadBytes, payloadOffset, hash);
         } catch (Exception e) {
-            throw new ProtocolException("Error deserializing message " + HEX.encode(payloadBytes) + "\n", e);
+            throw new ProtocolException("Error deserializing message " + HEX.encode(payloadBytes, payloadOffset, header.size) + "\n", e);
         }
     }
 
-    private Message makeMessage(String command, int length, byte[] payloadBytes, byte[] hash, byte[] checksum) throws ProtocolException {
-        // We use an if ladder rather than reflection because reflection is very slow on Android.
-        Message message;
-        NetworkParameters params = super.getParameters();
-        if (command.equals("version")) {
-            return new VersionMessage(params, payloadBytes);
-        } else if (command.equals("inv")) {
-            message = makeInventoryMessage(payloadBytes, length);
-        } else if (command.equals("block")) {
-            message = makeBlock(payloadBytes, length);
-        } else if (command.equals("merkleblock")) {
-            message = makeFilteredBlock(payloadBytes);
-        } else if (command.equals("getdata")) {
-            message = new GetDataMessage(params, payloadBytes, this, length);
-        } else if (command.equals("getblocks")) {
-            message = new GetBlocksMessage(params, payloadBytes);
-        } else if (command.equals("getheaders")) {
-            message = new GetHeadersMessage(params, payloadBytes);
-        } else if (command.equals("tx")) {
-            message = makeTransaction(payloadBytes, 0, length, hash);
-        } else if (command.equals("addr")) {
-            message = makeAddressMessage(payloadBytes, length);
-        } else if (command.equals("ping")) {
-            message = new Ping(params, payloadBytes);
-        } else if (command.equals("pong")) {
-            message = new Pong(params, payloadBytes);
-        } else if (command.equals("verack")) {
-            return new VersionAck(params, payloadBytes);
-        } else if (command.equals("headers")) {
-            return new HeadersMessage(params, payloadBytes);
-        } else if (command.equals("alert")) {
-            return makeAlertMessage(payloadBytes);
-        } else if (command.equals("filterload")) {
-            return makeBloomFilter(payloadBytes);
-        } else if (command.equals("notfound")) {
-            return new NotFoundMessage(params, payloadBytes);
-        } else if (command.equals("mempool")) {
-            return new MemoryPoolMessage();
-        } else if (command.equals("reject")) {
-            return new RejectMessage(params, payloadBytes);
-        } else if (command.equals("utxos")) {
-            return new UTXOsMessage(params, payloadBytes);
-        } else if (command.equals("getutxos")) {
-            return new GetUTXOsMessage(params, payloadBytes);
-        } else if (command.equals("sendheaders")) {
-            return new SendHeadersMessage(params, payloadBytes);
-        } else if (command.equals("mnb")) {
-            return new MasternodeBroadcast(params, payloadBytes);
-        } else if (command.equals("mnw")){
-            return new MasternodePaymentVote(params, payloadBytes);
-        } else if (command.equals("mnp")) {
-            return new MasternodePing(params, payloadBytes);
-        } else if (command.equals("dseg")) {
-            return new MasternodePing(params, payloadBytes);
-        } else if (command.equals("mnv")) {
-            return new MasternodeVerification(params, payloadBytes);
-        } else if (command.equals("spork")) {
-            return new SporkMessage(params, payloadBytes);
-        } else if (command.equals("ssc")) {
-            return new SyncStatusCount(params, payloadBytes);
-        } else if (command.equals("getsporks")) {
-            return new GetSporksMessage(params, payloadBytes);
-        } else if (command.equals("govsync")) {
-            return new GovernanceSyncMessage(params, payloadBytes);
-        } else if (command.equals("govobj")) {
-            return new GovernanceObject(params, payloadBytes);
-        } else if (command.equals("govobjvote")) {
-            return new GovernanceVote(params, payloadBytes);
-        } else if (command.equals("mnget")) {
-            return new MasternodePaymentVote(params, payloadBytes);
-        } else {
-            log.warn("No support for deserializing message with name {}", command);
-            return new UnknownMessage(params, command, payloadBytes);
+    /**
+     * Whether the array backing the given buffer can be handed to the message parsers
+     * as-is. In parse-retain mode messages keep a reference to their payload, so the
+     * array must not be one the caller is going to reuse.
+     */
+    private boolean canShare(final ByteBuffer in, final int size) {
+        return !isParseRetainMode()
+                || (in.arrayOffset() == 0 && in.position() == 0 && in.array().length == size);
+    }
+
+    /**
+     * Get an array to copy a payload of the given size into. Outside of parse-retain
+     * mode nothing holds on to the payload after parsing, so small payloads are copied
+     * into a per-thread buffer which is reused for the next message.
+     */
+    private byte[] payloadBuffer(final int size) {
+        if (isParseRetainMode() || size > MAX_POOLED_PAYLOAD_SIZE) {
+            return new byte[size];
+        }
+        byte[] buffer = payloadBuffers.get();
+        if (buffer.length < size) {
+            buffer = new byte[MAX_POOLED_PAYLOAD_SIZE];
+            payloadBuffers.set(buffer);
+        }
+        return buffer;
+    }
+
+    private Message makeMessage(BitcoinSerializer.BitcoinPacketHeader header, byte[] payloadBytes, int offset, byte[] hash) throws ProtocolException {
+        // Dispatch on the raw command field rather than walking the commands one by one
+        final MessageFactory factory = registry.lookup(header.header, 0);
+        if (factory == null) {
+            log.warn("No support for deserializing message with name {}", header.command);
+            return new UnknownMessage(getParameters(), header.command,
+                Arrays.copyOfRange(payloadBytes, offset, offset + header.size));
         }
-        return message;
+        return factory.parse(this, payloadBytes, offset, header.size, hash);
     }
+
+    /**
+     * Get the registry of message types this serializer can deserialize.
+     */
+    public MessageRegistry getMessageRegistry() {
+        return registry;
+    }
+
+    /**
+     * Get the registry used by serializers constructed without one. Message types
+     * registered here are understood by every such serializer.
+     */
+    public static MessageRegistry getDefaultMessageRegistry() {
+        return defaultRegistry;
+    }
+
+    /**
+     * Register the standard Bitcoin and Syscoin message types.
+     */
+    public static void registerStandardMessages(final MessageRegistry registry) {
+        // Sent but never parsed
+        registry.register("getaddr", GetAddrMessage.class);
+
+        // Blocks and transactions are parsed in place, as they make up the bulk of the traffic
+        registry.register("block", Block.class, new MessageFactory() {
+            @Override
+            public Message parse(AltcoinSerializer serializer, byte[] payload, int offset, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeBlock(payload, offset, length);
+            }
+
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return serializer.makeBlock(payload, 0, payload.length);
+            }
+        });
+        registry.register("tx", Transaction.class, new MessageFactory() {
+            @Override
+            public Message parse(AltcoinSerializer serializer, byte[] payload, int offset, int length, byte[] hash) throws ProtocolException {
+                return serializer.makeTransaction(payload, offset, length, hash);
+            }
+
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return serializer.makeTransaction(payload, 0, payload.length, null);
+            }
+        });
+        registry.register("version", VersionMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new VersionMessage(params, payload);
+            }
+        });
+        registry.register("inv", InventoryMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return serializer.makeInventoryMessage(payload, payload.length);
+            }
+        });
+        registry.register("merkleblock", FilteredBlock.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return serializer.makeFilteredBlock(payload);
+            }
+        });
+        registry.register("getdata", GetDataMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new GetDataMessage(params, payload, serializer, payload.length);
+            }
+        });
+        registry.register("getblocks", GetBlocksMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new GetBlocksMessage(params, payload);
+            }
+        });
+        registry.register("getheaders", GetHeadersMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new GetHeadersMessage(params, payload);
+            }
+        });
+        registry.register("addr", AddressMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return serializer.makeAddressMessage(payload, payload.length);
+            }
+        });
+        registry.register("ping", Ping.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new Ping(params, payload);
+            }
+        });
+        registry.register("pong", Pong.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new Pong(params, payload);
+            }
+        });
+        registry.register("verack", VersionAck.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new VersionAck(params, payload);
+            }
+        });
+        // Headers may carry AuxPoW, and are parsed in place like blocks
+        registry.register("headers", HeadersMessage.class, new MessageFactory() {
+            @Override
+            public Message parse(AltcoinSerializer serializer, byte[] payload, int offset, int length, byte[] hash) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new AltcoinHeadersMessage(params, payload, offset, serializer, length);
+            }
+
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new AltcoinHeadersMessage(params, payload, 0, serializer, payload.length);
+            }
+        });
+        registry.register("alert", new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return serializer.makeAlertMessage(payload);
+            }
+        });
+        registry.register("filterload", BloomFilter.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return serializer.makeBloomFilter(payload);
+            }
+        });
+        registry.register("notfound", NotFoundMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new NotFoundMessage(params, payload);
+            }
+        });
+        registry.register("mempool", MemoryPoolMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return new MemoryPoolMessage();
+            }
+        });
+        registry.register("reject", RejectMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new RejectMessage(params, payload);
+            }
+        });
+        registry.register("utxos", UTXOsMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new UTXOsMessage(params, payload);
+            }
+        });
+        registry.register("getutxos", GetUTXOsMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new GetUTXOsMessage(params, payload);
+            }
+        });
+        registry.register("sendheaders", SendHeadersMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new SendHeadersMessage(params, payload);
+            }
+        });
+        // SYSCOIN specific
+        registry.register("mnb", MasternodeBroadcast.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new MasternodeBroadcast(params, payload);
+            }
+        });
+        registry.register("mnw", MasternodePaymentVote.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new MasternodePaymentVote(params, payload);
+            }
+        });
+        registry.register("mnp", MasternodePing.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new MasternodePing(params, payload);
+            }
+        });
+        // Decoded as a masternode ping, but pings are always sent as "mnp"
+        registry.register("dseg", new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new MasternodePing(params, payload);
+            }
+        });
+        registry.register("mnv", MasternodeVerification.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new MasternodeVerification(params, payload);
+            }
+        });
+        registry.register("spork", SporkMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new SporkMessage(params, payload);
+            }
+        });
+        registry.register("ssc", SyncStatusCount.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new SyncStatusCount(params, payload);
+            }
+        });
+        registry.register("getsporks", GetSporksMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new GetSporksMessage(params, payload);
+            }
+        });
+        registry.register("govsync", GovernanceSyncMessage.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new GovernanceSyncMessage(params, payload);
+            }
+        });
+        registry.register("govobj", GovernanceObject.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new GovernanceObject(params, payload);
+            }
+        });
+        registry.register("govobjvote", GovernanceVote.class, new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new GovernanceVote(params, payload);
+            }
+        });
+        // Decoded as a payment vote, but votes are always sent as "mnw"
+        registry.register("mnget", new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                final NetworkParameters params = serializer.getParameters();
+                return new MasternodePaymentVote(params, payload);
+            }
+        });
+    }
+
     @Override
     public Block makeBlock(final byte[] payloadBytes, final int offset, final int length) throws ProtocolException {
         return new AltcoinBlock(getParameters(), payloadBytes, offset, this, length);
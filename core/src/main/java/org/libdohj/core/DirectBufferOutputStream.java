@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Output stream which writes into a chain of pooled direct buffers, so that a
+ * batch of messages can be written to a channel in a single gathering write.
+ * Regions already written can be patched in place, which is how message headers
+ * get their length and checksum once the payload following them is known.
+ * The write position of each segment marks the end of its data.
+ *
+ * <p>Not thread safe. Buffers are returned to the pool by {@link #close()}.</p>
+ */
+final class DirectBufferOutputStream extends OutputStream {
+    static final int SEGMENT_SIZE = 64 * 1024;
+    /** Number of idle segments kept for reuse. */
+    private static final int MAX_POOLED_SEGMENTS = 64;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private ByteBuffer current;
+
+    DirectBufferOutputStream() {
+        current = acquire();
+        segments.add(current);
+    }
+
+    private static ByteBuffer acquire() {
+        final ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(SEGMENT_SIZE);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void release(final ByteBuffer buffer) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_SEGMENTS) {
+            pool.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    private void nextSegment() {
+        current = acquire();
+        segments.add(current);
+    }
+
+    @Override
+    public void write(int b) {
+        if (!current.hasRemaining()) {
+            nextSegment();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                nextSegment();
+            }
+            final int chunk = Math.min(len, current.remaining());
+            current.put(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Make sure the next <code>length</code> bytes written are contiguous within a
+     * single segment, and return the position they will be written at.
+     */
+    Mark reserve(final int length) {
+        if (current.remaining() < length) {
+            // The tail of the current segment is left unused
+            nextSegment();
+        }
+        return mark();
+    }
+
+    /**
+     * Get the current write position.
+     */
+    Mark mark() {
+        return new Mark(segments.size() - 1, current.position());
+    }
+
+    /**
+     * Get the segment a mark refers to, for writing into it in place.
+     */
+    ByteBuffer segment(final Mark mark) {
+        return segments.get(mark.segment);
+    }
+
+    /**
+     * Count the bytes between two marks.
+     */
+    long distance(final Mark from, final Mark to) {
+        long total = 0;
+        for (int i = from.segment; i < to.segment; i++) {
+            total += segments.get(i).position();
+        }
+        return total - from.position + to.position;
+    }
+
+    /**
+     * Feed the bytes between two marks into the given digest, without copying
+     * them out of the segments.
+     */
+    void digest(final MessageDigest digest, final Mark from, final Mark to) {
+        for (int i = from.segment; i <= to.segment; i++) {
+            final ByteBuffer region = segments.get(i).duplicate();
+            region.limit(i == to.segment ? to.position : region.position());
+            region.position(i == from.segment ? from.position : 0);
+            digest.update(region);
+        }
+    }
+
+    /**
+     * Write everything written so far to the channel. The channel is expected to
+     * be blocking; this returns only once all of the data has been written.
+     */
+    void writeTo(final GatheringByteChannel channel) throws IOException {
+        final ByteBuffer[] buffers = new ByteBuffer[segments.size()];
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            final ByteBuffer buffer = segments.get(i);
+            buffer.flip();
+            buffers[i] = buffer;
+            remaining += buffer.remaining();
+        }
+        int first = 0;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    /**
+     * Return the segments to the pool. The stream must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (ByteBuffer segment : segments) {
+            release(segment);
+        }
+        segments.clear();
+        current = null;
+    }
+
+    /**
+     * A position within the stream, as a segment index and the offset within it.
+     */
+    static final class Mark {
+        final int segment;
+        final int position;
+
+        Mark(final int segment, final int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+}
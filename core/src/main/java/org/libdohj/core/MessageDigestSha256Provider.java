@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Provides the JDK's SHA-256, so that any hardware intrinsics the JVM has for it
+ * apply. New digests are cloned from a prototype rather than looked up through
+ * the security providers each time.
+ */
+public class MessageDigestSha256Provider implements Sha256Provider {
+    private final MessageDigest prototype;
+
+    public MessageDigestSha256Provider() {
+        try {
+            prototype = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);  // Can't happen.
+        }
+    }
+
+    @Override
+    public MessageDigest newDigest() {
+        try {
+            synchronized (prototype) {
+                return (MessageDigest) prototype.clone();
+            }
+        } catch (CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(prototype.getAlgorithm());
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);  // Can't happen.
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.ProtocolException;
+
+import java.util.Arrays;
+
+/**
+ * Creates messages of a single type from their wire format. Factories are
+ * registered against a command in a {@link MessageRegistry}, which
+ * {@link AltcoinSerializer} consults when deserializing payloads.
+ */
+public abstract class MessageFactory {
+    /**
+     * Parse a message from its payload. The payload may be a slice of a larger
+     * buffer, so by default it is copied out and passed to
+     * {@link #create(AltcoinSerializer, byte[])}. Factories for messages which can
+     * be parsed in place override this instead.
+     *
+     * @param serializer the serializer reading the message.
+     * @param payload array containing the payload.
+     * @param offset offset of the payload within the array.
+     * @param length length of the payload.
+     * @param hash double SHA256 hash of the payload, as used for the checksum.
+     */
+    public Message parse(final AltcoinSerializer serializer, byte[] payload, final int offset,
+            final int length, final byte[] hash) throws ProtocolException {
+        if (offset != 0 || payload.length != length) {
+            payload = Arrays.copyOfRange(payload, offset, offset + length);
+        }
+        return create(serializer, payload);
+    }
+
+    /**
+     * Create a message from a payload array containing exactly the message.
+     */
+    protected abstract Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException;
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.Utils;
+
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps message commands to the factories which parse them, and message classes
+ * to the commands they are sent with.
+ *
+ * <p>Commands are looked up by the raw, zero padded 12 byte command field of the
+ * packet header, without decoding it to a string first. The field is read as a
+ * long and an int and located in an open addressing table which is kept sparse,
+ * so a lookup is a hash and usually a single comparison, and does not allocate
+ * regardless of the number of registered commands. Note the whole field must
+ * match, so a command with data after its terminating zero byte is not found.</p>
+ *
+ * <p>Commands for outgoing messages are resolved through a {@link ClassValue}, so
+ * after the first message of a class the lookup is a constant time read. A class
+ * without a registration of its own is sent with the command of its nearest
+ * registered superclass, so for example an {@code AltcoinBlock} is sent as a
+ * "block".</p>
+ *
+ * <p>Each command may have only one factory and each class only one command.
+ * Registration replaces the lookup structures rather than modifying them, so
+ * lookups are safe from any thread without locking.</p>
+ */
+public class MessageRegistry {
+    /** Length of the command field in the packet header. */
+    public static final int COMMAND_LENGTH = 12;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private volatile Map<Class<? extends Message>, String> types = Collections.emptyMap();
+    private volatile ClassValue<String> commands = commandsOf(types);
+
+    /**
+     * Register a message type which is both sent and received.
+     *
+     * @param command the command the type is sent with.
+     * @param type the class of messages sent with this command.
+     * @param factory the factory used to parse messages received with this command.
+     * @throws IllegalArgumentException if the command is not a valid command or
+     * already has a factory, or the class already has a command.
+     */
+    public void register(final String command, final Class<? extends Message> type, final MessageFactory factory) {
+        add(command, type, factory);
+    }
+
+    /**
+     * Register a factory for received messages with the given command, without
+     * sending any class of message with it. This is used for commands which are
+     * aliases for another command.
+     *
+     * @throws IllegalArgumentException if the command is not a valid command, or
+     * already has a factory.
+     */
+    public void register(final String command, final MessageFactory factory) {
+        add(command, null, factory);
+    }
+
+    /**
+     * Register a class of message which is sent with the given command, but
+     * never parsed when received.
+     *
+     * @throws IllegalArgumentException if the command is not a valid command, or
+     * the class already has a command.
+     */
+    public void register(final String command, final Class<? extends Message> type) {
+        add(command, type, null);
+    }
+
+    private synchronized void add(final String command, @Nullable final Class<? extends Message> type,
+            @Nullable final MessageFactory factory) {
+        final byte[] encoded = encodeCommand(command);
+        final long key0 = Utils.readInt64(encoded, 0);
+        final int key1 = (int) Utils.readUint32(encoded, 8);
+        if (factory != null && table.get(key0, key1) != null) {
+            throw new IllegalArgumentException("A factory is already registered for \"" + command + "\" messages");
+        }
+        if (type != null && types.containsKey(type)) {
+            throw new IllegalArgumentException(type.getName() + " is already registered as \""
+                + types.get(type) + "\", cannot also register it as \"" + command + "\"");
+        }
+
+        if (factory != null) {
+            // Keep the table at most a quarter full, so probe sequences stay short
+            final Table next = new Table((table.size + 1) * 4 > table.factories.length
+                ? table.factories.length * 2
+                : table.factories.length);
+            next.putAll(table);
+            next.put(key0, key1, factory);
+            table = next;
+        }
+        if (type != null) {
+            // Values already computed may be inherited from a superclass, so start afresh
+            final Map<Class<? extends Message>, String> nextTypes = new HashMap<Class<? extends Message>, String>(types);
+            nextTypes.put(type, command);
+            types = Collections.unmodifiableMap(nextTypes);
+            commands = commandsOf(types);
+        }
+    }
+
+    /**
+     * Get the command messages of the given class are sent with.
+     *
+     * @return the command, or null if neither the class nor any of its
+     * superclasses are registered.
+     */
+    @Nullable
+    public String getCommand(final Class<? extends Message> type) {
+        return commands.get(type);
+    }
+
+    private static ClassValue<String> commandsOf(final Map<Class<? extends Message>, String> types) {
+        return new ClassValue<String>() {
+            @Override
+            protected String computeValue(final Class<?> type) {
+                for (Class<?> clazz = type; clazz != null; clazz = clazz.getSuperclass()) {
+                    final String command = types.get(clazz);
+                    if (command != null) {
+                        return command;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Get the factory for the command at the given offset of a packet header.
+     *
+     * @param header array containing the zero padded command field.
+     * @param offset offset of the command field within the array.
+     * @return the factory, or null if none is registered for the command.
+     */
+    @Nullable
+    public MessageFactory lookup(final byte[] header, final int offset) {
+        return table.get(Utils.readInt64(header, offset), (int) Utils.readUint32(header, offset + 8));
+    }
+
+    /**
+     * Get the factory for the given command.
+     *
+     * @return the factory, or null if none is registered for the command.
+     */
+    @Nullable
+    public MessageFactory lookup(final String command) {
+        return lookup(encodeCommand(command), 0);
+    }
+
+    /**
+     * Encode a command as the zero padded field used in packet headers.
+     */
+    static byte[] encodeCommand(final String command) {
+        final byte[] bytes = command.getBytes(US_ASCII);
+        if (bytes.length == 0 || bytes.length > COMMAND_LENGTH) {
+            throw new IllegalArgumentException("Message commands must be 1 to " + COMMAND_LENGTH + " characters: \"" + command + "\"");
+        }
+        final byte[] encoded = new byte[COMMAND_LENGTH];
+        System.arraycopy(bytes, 0, encoded, 0, bytes.length);
+        return encoded;
+    }
+
+    private static final class Table {
+        private final long[] keys0;
+        private final int[] keys1;
+        private final MessageFactory[] factories;
+        private final int mask;
+        private int size;
+
+        private Table(final int capacity) {
+            keys0 = new long[capacity];
+            keys1 = new int[capacity];
+            factories = new MessageFactory[capacity];
+            mask = capacity - 1;
+        }
+
+        private static int slot(final long key0, final int key1, final int mask) {
+            long hash = key0 * 0x9E3779B97F4A7C15L + key1 * 0xC2B2AE3D27D4EB4FL;
+            hash ^= hash >>> 31;
+            return (int) hash & mask;
+        }
+
+        @Nullable
+        private MessageFactory get(final long key0, final int key1) {
+            for (int slot = slot(key0, key1, mask); ; slot = (slot + 1) & mask) {
+                final MessageFactory factory = factories[slot];
+                if (factory == null
+                    || (keys0[slot] == key0 && keys1[slot] == key1)) {
+                    return factory;
+                }
+            }
+        }
+
+        private void put(final long key0, final int key1, final MessageFactory factory) {
+            int slot = slot(key0, key1, mask);
+            while (factories[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys0[slot] = key0;
+            keys1[slot] = key1;
+            factories[slot] = factory;
+            size++;
+        }
+
+        private void putAll(final Table other) {
+            for (int slot = 0; slot < other.factories.length; slot++) {
+                if (other.factories[slot] != null) {
+                    put(other.keys0[slot], other.keys1[slot], other.factories[slot]);
+                }
+            }
+        }
+    }
+}
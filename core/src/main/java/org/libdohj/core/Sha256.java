@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Hashing through the configured {@link Sha256Provider}. By default this is
+ * {@link MessageDigestSha256Provider}, the JDK's SHA-256.</p>
+ *
+ * <p>Each thread keeps a digest from the current provider, so hashing here does
+ * not create one per call. Changing the provider takes effect for each thread on
+ * its next hash; digests already handed out by {@link #newDigest()} are kept.</p>
+ */
+public final class Sha256 {
+    private static final int DIGEST_LENGTH = 32;
+
+    private static volatile Sha256Provider provider = new MessageDigestSha256Provider();
+
+    private static final ThreadLocal<ProviderDigest> DIGEST = new ThreadLocal<ProviderDigest>();
+
+    private Sha256() {
+    }
+
+    public static Sha256Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Set the provider used for hashing from now on.
+     */
+    public static void setProvider(final Sha256Provider newProvider) {
+        provider = checkNotNull(newProvider);
+    }
+
+    /**
+     * @return a new digest from the current provider.
+     */
+    public static MessageDigest newDigest() {
+        return provider.newDigest();
+    }
+
+    /**
+     * Calculate the SHA-256 hash of the SHA-256 hash of the given range, as
+     * {@link org.bitcoinj.core.Sha256Hash#hashTwice(byte[], int, int)} does.
+     */
+    public static byte[] hashTwice(final byte[] input, final int offset, final int length) {
+        final MessageDigest digest = getDigest();
+        final byte[] out = new byte[DIGEST_LENGTH];
+        try {
+            digest.update(input, offset, length);
+            digest.digest(out, 0, DIGEST_LENGTH);
+            digest.update(out, 0, DIGEST_LENGTH);
+            digest.digest(out, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+        return out;
+    }
+
+    public static byte[] hashTwice(final byte[] input) {
+        return hashTwice(input, 0, input.length);
+    }
+
+    /**
+     * @return this thread's digest, reset, from the current provider.
+     */
+    private static MessageDigest getDigest() {
+        final Sha256Provider current = provider;
+        ProviderDigest held = DIGEST.get();
+        if (null == held || held.provider != current) {
+            held = new ProviderDigest(current);
+            DIGEST.set(held);
+        } else {
+            held.digest.reset();
+        }
+        return held.digest;
+    }
+
+    private static final class ProviderDigest {
+        private final Sha256Provider provider;
+        private final MessageDigest digest;
+
+        private ProviderDigest(final Sha256Provider provider) {
+            this.provider = provider;
+            this.digest = provider.newDigest();
+        }
+    }
+}
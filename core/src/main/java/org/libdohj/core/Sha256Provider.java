@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import java.security.MessageDigest;
+
+/**
+ * <p>Source of the SHA-256 digests used for this library's own hashing: message
+ * checksums in {@link AltcoinSerializer}, AuxPoW verification and merkle trees.
+ * The provider in use is set with {@link Sha256#setProvider(Sha256Provider)}.</p>
+ *
+ * <p>Block and transaction hashes are calculated inside bitcoinj, so are not
+ * affected.</p>
+ */
+public interface Sha256Provider {
+    /**
+     * @return a new SHA-256 digest, to be used by one thread at a time.
+     */
+    MessageDigest newDigest();
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>An immutable unsigned 256 bit integer, held as four longs. Covers the
+ * arithmetic needed for proof of work and difficulty retargeting (compact bits,
+ * multiplying and dividing by small integers, comparison) without the
+ * allocations and generality of {@link BigInteger}.</p>
+ *
+ * <p>Compact bits are decoded and encoded exactly as
+ * {@link org.bitcoinj.core.Utils#decodeCompactBits(long)} and
+ * {@link org.bitcoinj.core.Utils#encodeCompactBits(BigInteger)} do, for every
+ * value which fits.</p>
+ */
+public final class UInt256 implements Comparable<UInt256> {
+    public static final UInt256 ZERO = new UInt256(0, 0, 0, 0);
+
+    private static final long LOW_32_BITS = 0xffffffffL;
+
+    // Most significant first
+    private final long w3;
+    private final long w2;
+    private final long w1;
+    private final long w0;
+
+    private UInt256(final long w3, final long w2, final long w1, final long w0) {
+        this.w3 = w3;
+        this.w2 = w2;
+        this.w1 = w1;
+        this.w0 = w0;
+    }
+
+    public static UInt256 valueOf(final long value) {
+        checkArgument(value >= 0, "Value must not be negative");
+        return value == 0 ? ZERO : new UInt256(0, 0, 0, value);
+    }
+
+    /**
+     * @param bytes 32 bytes, big-endian, such as from
+     * {@link org.bitcoinj.core.Sha256Hash#getBytes()}.
+     */
+    public static UInt256 fromBytes(final byte[] bytes) {
+        checkArgument(bytes.length == 32, "Expected 32 bytes but got " + bytes.length);
+        return new UInt256(readLong(bytes, 0), readLong(bytes, 8), readLong(bytes, 16), readLong(bytes, 24));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is negative or does not fit in
+     * 256 bits.
+     */
+    public static UInt256 fromBigInteger(final BigInteger value) {
+        checkArgument(value.signum() >= 0 && value.bitLength() <= 256, "Value does not fit in 256 bits unsigned");
+        final byte[] bytes = value.toByteArray();
+        final byte[] padded = new byte[32];
+        final int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, padded, 32 - length, length);
+        return fromBytes(padded);
+    }
+
+    /**
+     * Decode a difficulty target from compact form.
+     *
+     * @return the target, or null if it is negative or does not fit in 256 bits.
+     */
+    @Nullable
+    public static UInt256 fromCompactBits(final long compact) {
+        final int size = (int) (compact >> 24) & 0xff;
+        if (size == 0) {
+            return ZERO;
+        }
+        long mantissa = compact & 0x00ffffffL;
+        // The sign is the top bit of the first mantissa byte, even when fewer
+        // than three bytes are used
+        final boolean negative = (mantissa & 0x00800000L) != 0;
+        mantissa &= 0x007fffffL;
+        if (size < 3) {
+            mantissa >>= 8 * (3 - size);
+        }
+        if (mantissa == 0) {
+            return ZERO;
+        }
+        if (negative) {
+            return null;
+        }
+        if (size <= 3) {
+            return valueOf(mantissa);
+        }
+        final int shift = 8 * (size - 3);
+        if (64 - Long.numberOfLeadingZeros(mantissa) + shift > 256) {
+            return null;
+        }
+        return valueOf(mantissa).shiftLeft(shift);
+    }
+
+    /**
+     * Encode this value in compact form.
+     */
+    public long encodeCompactBits() {
+        // Size in bytes as BigInteger.toByteArray() would give it, including room for the sign
+        int size = bitLength() / 8 + 1;
+        long result;
+        if (size <= 3) {
+            result = w0 << 8 * (3 - size);
+        } else {
+            result = shiftRight(8 * (size - 3)).w0;
+        }
+        // The 0x00800000 bit denotes the sign, so if it is set divide the
+        // mantissa by 256 and increase the exponent
+        if ((result & 0x00800000L) != 0) {
+            result >>= 8;
+            size++;
+        }
+        result |= size << 24;
+        return result;
+    }
+
+    /**
+     * @return this value multiplied by the given value, or null if the product
+     * does not fit in 256 bits.
+     */
+    @Nullable
+    public UInt256 multiply(final int multiplier) {
+        checkArgument(multiplier >= 0, "Multiplier must not be negative");
+        final long m = multiplier;
+        // Multiply 32 bits at a time, so no partial product overflows
+        long lo = (w0 & LOW_32_BITS) * m;
+        long hi = (w0 >>> 32) * m + (lo >>> 32);
+        final long r0 = (hi << 32) | (lo & LOW_32_BITS);
+        lo = (w1 & LOW_32_BITS) * m + (hi >>> 32);
+        hi = (w1 >>> 32) * m + (lo >>> 32);
+        final long r1 = (hi << 32) | (lo & LOW_32_BITS);
+        lo = (w2 & LOW_32_BITS) * m + (hi >>> 32);
+        hi = (w2 >>> 32) * m + (lo >>> 32);
+        final long r2 = (hi << 32) | (lo & LOW_32_BITS);
+        lo = (w3 & LOW_32_BITS) * m + (hi >>> 32);
+        hi = (w3 >>> 32) * m + (lo >>> 32);
+        final long r3 = (hi << 32) | (lo & LOW_32_BITS);
+        if ((hi >>> 32) != 0) {
+            return null;
+        }
+        return new UInt256(r3, r2, r1, r0);
+    }
+
+    /**
+     * @return this value divided by the given value, rounding down.
+     */
+    public UInt256 divide(final int divisor) {
+        checkArgument(divisor > 0, "Divisor must be positive");
+        final long d = divisor;
+        // Divide 32 bits at a time; the remainder is always below 2^31, so the
+        // partial dividends fit in a signed long
+        long dividend = w3 >>> 32;
+        long qh = dividend / d;
+        dividend = ((dividend % d) << 32) | (w3 & LOW_32_BITS);
+        final long q3 = (qh << 32) | (dividend / d);
+        dividend = ((dividend % d) << 32) | (w2 >>> 32);
+        qh = dividend / d;
+        dividend = ((dividend % d) << 32) | (w2 & LOW_32_BITS);
+        final long q2 = (qh << 32) | (dividend / d);
+        dividend = ((dividend % d) << 32) | (w1 >>> 32);
+        qh = dividend / d;
+        dividend = ((dividend % d) << 32) | (w1 & LOW_32_BITS);
+        final long q1 = (qh << 32) | (dividend / d);
+        dividend = ((dividend % d) << 32) | (w0 >>> 32);
+        qh = dividend / d;
+        dividend = ((dividend % d) << 32) | (w0 & LOW_32_BITS);
+        final long q0 = (qh << 32) | (dividend / d);
+        return new UInt256(q3, q2, q1, q0);
+    }
+
+    public UInt256 and(final UInt256 other) {
+        return new UInt256(w3 & other.w3, w2 & other.w2, w1 & other.w1, w0 & other.w0);
+    }
+
+    /**
+     * Shift left, dropping bits shifted past 256. A negative distance shifts
+     * right instead, as {@link BigInteger#shiftLeft(int)} does.
+     */
+    public UInt256 shiftLeft(final int n) {
+        if (n < 0) {
+            return shiftRight(-n);
+        }
+        if (n >= 256) {
+            return ZERO;
+        }
+        final int words = n / 64;
+        final int bits = n % 64;
+        return new UInt256(shiftedWord(3 - words, bits), shiftedWord(2 - words, bits),
+            shiftedWord(1 - words, bits), shiftedWord(-words, bits));
+    }
+
+    /**
+     * Shift right. A negative distance shifts left instead.
+     */
+    public UInt256 shiftRight(final int n) {
+        if (n < 0) {
+            return shiftLeft(-n);
+        }
+        if (n >= 256) {
+            return ZERO;
+        }
+        final int words = n / 64;
+        final int bits = n % 64;
+        return new UInt256(rightShiftedWord(3 + words, bits), rightShiftedWord(2 + words, bits),
+            rightShiftedWord(1 + words, bits), rightShiftedWord(words, bits));
+    }
+
+    /**
+     * @return word {@code index} of this value shifted left by {@code bits}
+     * (under 64), taking in bits from the word below.
+     */
+    private long shiftedWord(final int index, final int bits) {
+        final long word = word(index) << bits;
+        return bits == 0 ? word : word | (word(index - 1) >>> (64 - bits));
+    }
+
+    private long rightShiftedWord(final int index, final int bits) {
+        final long word = word(index) >>> bits;
+        return bits == 0 ? word : word | (word(index + 1) << (64 - bits));
+    }
+
+    /**
+     * @return the given word, least significant first, or zero outside the value.
+     */
+    private long word(final int index) {
+        switch (index) {
+            case 0: return w0;
+            case 1: return w1;
+            case 2: return w2;
+            case 3: return w3;
+            default: return 0;
+        }
+    }
+
+    public int bitLength() {
+        if (w3 != 0) return 256 - Long.numberOfLeadingZeros(w3);
+        if (w2 != 0) return 192 - Long.numberOfLeadingZeros(w2);
+        if (w1 != 0) return 128 - Long.numberOfLeadingZeros(w1);
+        return 64 - Long.numberOfLeadingZeros(w0);
+    }
+
+    public boolean isZero() {
+        return (w3 | w2 | w1 | w0) == 0;
+    }
+
+    @Override
+    public int compareTo(final UInt256 other) {
+        if (w3 != other.w3) return compareUnsigned(w3, other.w3);
+        if (w2 != other.w2) return compareUnsigned(w2, other.w2);
+        if (w1 != other.w1) return compareUnsigned(w1, other.w1);
+        return compareUnsigned(w0, other.w0);
+    }
+
+    private static int compareUnsigned(final long a, final long b) {
+        final long x = a + Long.MIN_VALUE;
+        final long y = b + Long.MIN_VALUE;
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
+
+    /**
+     * @return this value as 32 bytes, big-endian.
+     */
+    public byte[] toBytes() {
+        final byte[] bytes = new byte[32];
+        writeLong(w3, bytes, 0);
+        writeLong(w2, bytes, 8);
+        writeLong(w1, bytes, 16);
+        writeLong(w0, bytes, 24);
+        return bytes;
+    }
+
+    public BigInteger toBigInteger() {
+        return new BigInteger(1, toBytes());
+    }
+
+    private static long readLong(final byte[] bytes, final int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeLong(final long value, final byte[] bytes, final int offset) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final UInt256 other = (UInt256) o;
+        return w3 == other.w3 && w2 == other.w2 && w1 == other.w1 && w0 == other.w0;
+    }
+
+    @Override
+    public int hashCode() {
+        final long folded = w3 ^ w2 ^ w1 ^ w0;
+        return (int) (folded ^ (folded >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toBigInteger().toString(16);
+    }
+}
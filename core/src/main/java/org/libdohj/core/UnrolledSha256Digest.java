@@ -0,0 +1,250 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * <p>SHA-256 (FIPS 180-4) in plain Java, as a {@link MessageDigest} so it can
+ * stand in for the JDK's wherever one is used. The compression function is
+ * unrolled eight rounds at a time, with the working variables rotated by name
+ * rather than shuffled between rounds, and whole blocks are compressed straight
+ * from the input without being copied.</p>
+ *
+ * <p>Useful where the JDK's implementation is slow or lacks hardware intrinsics;
+ * otherwise the JDK's is usually faster. Not thread safe.</p>
+ */
+public final class UnrolledSha256Digest extends MessageDigest implements Cloneable {
+    private static final int BLOCK_LENGTH = 64;
+    private static final int DIGEST_LENGTH = 32;
+
+    private static final int[] K = {
+        0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+        0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+        0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+        0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+        0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+        0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+        0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+        0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private int[] state = new int[8];
+    private int[] w = new int[64];
+    /** Bytes of a partial block awaiting more input. */
+    private byte[] buffer = new byte[BLOCK_LENGTH];
+    private int buffered;
+    /** Total bytes hashed so far. */
+    private long count;
+
+    public UnrolledSha256Digest() {
+        super("SHA-256");
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineReset() {
+        state[0] = 0x6a09e667;
+        state[1] = 0xbb67ae85;
+        state[2] = 0x3c6ef372;
+        state[3] = 0xa54ff53a;
+        state[4] = 0x510e527f;
+        state[5] = 0x9b05688c;
+        state[6] = 0x1f83d9ab;
+        state[7] = 0x5be0cd19;
+        buffered = 0;
+        count = 0;
+    }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        buffer[buffered++] = input;
+        count++;
+        if (buffered == BLOCK_LENGTH) {
+            compress(buffer, 0);
+            buffered = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, int offset, int length) {
+        count += length;
+        if (buffered > 0) {
+            final int fill = Math.min(length, BLOCK_LENGTH - buffered);
+            System.arraycopy(input, offset, buffer, buffered, fill);
+            buffered += fill;
+            offset += fill;
+            length -= fill;
+            if (buffered < BLOCK_LENGTH) {
+                return;
+            }
+            compress(buffer, 0);
+            buffered = 0;
+        }
+        while (length >= BLOCK_LENGTH) {
+            compress(input, offset);
+            offset += BLOCK_LENGTH;
+            length -= BLOCK_LENGTH;
+        }
+        System.arraycopy(input, offset, buffer, 0, length);
+        buffered = length;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final byte[] out = new byte[DIGEST_LENGTH];
+        finish(out, 0);
+        return out;
+    }
+
+    @Override
+    protected int engineDigest(final byte[] out, final int offset, final int length) throws DigestException {
+        if (length < DIGEST_LENGTH) {
+            throw new DigestException("Output buffer too small for digest");
+        }
+        finish(out, offset);
+        return DIGEST_LENGTH;
+    }
+
+    /**
+     * Pad the final block, write the digest and reset for the next message.
+     */
+    private void finish(final byte[] out, final int offset) {
+        final long bits = count << 3;
+        buffer[buffered++] = (byte) 0x80;
+        if (buffered > BLOCK_LENGTH - 8) {
+            while (buffered < BLOCK_LENGTH) {
+                buffer[buffered++] = 0;
+            }
+            compress(buffer, 0);
+            buffered = 0;
+        }
+        while (buffered < BLOCK_LENGTH - 8) {
+            buffer[buffered++] = 0;
+        }
+        writeInt((int) (bits >>> 32), buffer, BLOCK_LENGTH - 8);
+        writeInt((int) bits, buffer, BLOCK_LENGTH - 4);
+        compress(buffer, 0);
+        for (int i = 0; i < 8; i++) {
+            writeInt(state[i], out, offset + i * 4);
+        }
+        engineReset();
+    }
+
+    private void compress(final byte[] block, final int offset) {
+        final int[] w = this.w;
+        for (int i = 0; i < 16; i++) {
+            final int pos = offset + i * 4;
+            w[i] = (block[pos] << 24) | ((block[pos + 1] & 0xff) << 16) | ((block[pos + 2] & 0xff) << 8)
+                | (block[pos + 3] & 0xff);
+        }
+        for (int i = 16; i < 64; i++) {
+            final int s0 = w[i - 15];
+            final int s1 = w[i - 2];
+            w[i] = w[i - 16] + (Integer.rotateRight(s0, 7) ^ Integer.rotateRight(s0, 18) ^ (s0 >>> 3))
+                + w[i - 7] + (Integer.rotateRight(s1, 17) ^ Integer.rotateRight(s1, 19) ^ (s1 >>> 10));
+        }
+
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+        int e = state[4];
+        int f = state[5];
+        int g = state[6];
+        int h = state[7];
+        for (int i = 0; i < 64; i += 8) {
+            h += (Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25))
+                + ((e & f) ^ (~e & g)) + K[i] + w[i];
+            d += h;
+            h += (Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22))
+                + ((a & b) ^ (a & c) ^ (b & c));
+
+            g += (Integer.rotateRight(d, 6) ^ Integer.rotateRight(d, 11) ^ Integer.rotateRight(d, 25))
+                + ((d & e) ^ (~d & f)) + K[i + 1] + w[i + 1];
+            c += g;
+            g += (Integer.rotateRight(h, 2) ^ Integer.rotateRight(h, 13) ^ Integer.rotateRight(h, 22))
+                + ((h & a) ^ (h & b) ^ (a & b));
+
+            f += (Integer.rotateRight(c, 6) ^ Integer.rotateRight(c, 11) ^ Integer.rotateRight(c, 25))
+                + ((c & d) ^ (~c & e)) + K[i + 2] + w[i + 2];
+            b += f;
+            f += (Integer.rotateRight(g, 2) ^ Integer.rotateRight(g, 13) ^ Integer.rotateRight(g, 22))
+                + ((g & h) ^ (g & a) ^ (h & a));
+
+            e += (Integer.rotateRight(b, 6) ^ Integer.rotateRight(b, 11) ^ Integer.rotateRight(b, 25))
+                + ((b & c) ^ (~b & d)) + K[i + 3] + w[i + 3];
+            a += e;
+            e += (Integer.rotateRight(f, 2) ^ Integer.rotateRight(f, 13) ^ Integer.rotateRight(f, 22))
+                + ((f & g) ^ (f & h) ^ (g & h));
+
+            d += (Integer.rotateRight(a, 6) ^ Integer.rotateRight(a, 11) ^ Integer.rotateRight(a, 25))
+                + ((a & b) ^ (~a & c)) + K[i + 4] + w[i + 4];
+            h += d;
+            d += (Integer.rotateRight(e, 2) ^ Integer.rotateRight(e, 13) ^ Integer.rotateRight(e, 22))
+                + ((e & f) ^ (e & g) ^ (f & g));
+
+            c += (Integer.rotateRight(h, 6) ^ Integer.rotateRight(h, 11) ^ Integer.rotateRight(h, 25))
+                + ((h & a) ^ (~h & b)) + K[i + 5] + w[i + 5];
+            g += c;
+            c += (Integer.rotateRight(d, 2) ^ Integer.rotateRight(d, 13) ^ Integer.rotateRight(d, 22))
+                + ((d & e) ^ (d & f) ^ (e & f));
+
+            b += (Integer.rotateRight(g, 6) ^ Integer.rotateRight(g, 11) ^ Integer.rotateRight(g, 25))
+                + ((g & h) ^ (~g & a)) + K[i + 6] + w[i + 6];
+            f += b;
+            b += (Integer.rotateRight(c, 2) ^ Integer.rotateRight(c, 13) ^ Integer.rotateRight(c, 22))
+                + ((c & d) ^ (c & e) ^ (d & e));
+
+            a += (Integer.rotateRight(f, 6) ^ Integer.rotateRight(f, 11) ^ Integer.rotateRight(f, 25))
+                + ((f & g) ^ (~f & h)) + K[i + 7] + w[i + 7];
+            e += a;
+            a += (Integer.rotateRight(b, 2) ^ Integer.rotateRight(b, 13) ^ Integer.rotateRight(b, 22))
+                + ((b & c) ^ (b & d) ^ (c & d));
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    private static void writeInt(final int value, final byte[] out, final int offset) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final UnrolledSha256Digest copy = (UnrolledSha256Digest) super.clone();
+        copy.state = state.clone();
+        copy.w = new int[64];
+        copy.buffer = buffer.clone();
+        return copy;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import java.security.MessageDigest;
+
+/**
+ * Provides {@link UnrolledSha256Digest}, the plain Java SHA-256.
+ */
+public class UnrolledSha256Provider implements Sha256Provider {
+    @Override
+    public MessageDigest newDigest() {
+        return new UnrolledSha256Digest();
+    }
+}
@@ -35,6 +35,8 @@ import org.slf4j.LoggerFactory;
 
 import org.libdohj.core.AltcoinSerializer;
 import org.libdohj.core.AuxPoWNetworkParameters;
+import org.libdohj.core.UInt256;
+import org.libdohj.store.AncestorBlockStore;
 
 /**
  * Common parameters for Syscoin networks.
@@ -82,6 +84,10 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
     private static final Coin BASE_SUBSIDY   = COIN.multiply(500000);
     private static final Coin STABLE_SUBSIDY = COIN.multiply(10000);
     int nBridgeStartBlock;
+
+    /** The maximum target as a 256 bit integer, converted on first use. */
+    private volatile UInt256 maxTargetAsUInt256;
+
     public AbstractSyscoinParams() {
         super();
         interval = SYSCOIN_INTERVAL;
@@ -120,20 +126,29 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
             return;
         }
 
-        // We need to find a block far back in the chain. It's OK that this is expensive because it only occurs every
-        // two weeks after the initial block chain download.
+        // We need to find the block at the start of this retarget period. Stores which index ancestors find it
+        // directly, otherwise walk back through the chain.
         final Stopwatch watch = Stopwatch.createStarted();
-        Sha256Hash hash = prev.getHash();
-        StoredBlock cursor = null;
         final int interval = this.getInterval();
-        for (int i = 0; i < interval; i++) {
-            cursor = blockStore.get(hash);
-            if (cursor == null) {
-                // This should never happen. If it does, it means we are following an incorrect or busted chain.
-                throw new VerificationException(
-                        "Difficulty transition point but we did not find a way back to the last transition point. Not found: " + hash);
+        final int periodStartHeight = storedPrev.getHeight() - interval + 1;
+        StoredBlock cursor = null;
+        if (blockStore instanceof AncestorBlockStore) {
+            cursor = ((AncestorBlockStore) blockStore).getAncestor(storedPrev, periodStartHeight);
+            if (cursor != null && cursor.getHeight() != periodStartHeight) {
+                cursor = null;
+            }
+        }
+        if (cursor == null) {
+            Sha256Hash hash = prev.getHash();
+            for (int i = 0; i < interval; i++) {
+                cursor = blockStore.get(hash);
+                if (cursor == null) {
+                    // This should never happen. If it does, it means we are following an incorrect or busted chain.
+                    throw new VerificationException(
+                            "Difficulty transition point but we did not find a way back to the last transition point. Not found: " + hash);
+                }
+                hash = cursor.getHeader().getPrevBlockHash();
             }
-            hash = cursor.getHeader().getPrevBlockHash();
         }
         checkState(cursor != null && isDifficultyTransitionPoint(cursor.getHeight() - 1),
                 "Didn't arrive at a transition point.");
@@ -142,10 +157,27 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
             log.info("Difficulty transition traversal took {}", watch);
 
         Block blockIntervalAgo = cursor.getHeader();
-        int timespan = (int) (prev.getTimeSeconds() - blockIntervalAgo.getTimeSeconds());
-        // Limit the adjustment step.
         final int targetTimespan = this.getTargetTimespan();
-        if(storedPrev.getHeight() >= nBridgeStartBlock){
+        final int timespan = limitTimespan((int) (prev.getTimeSeconds() - blockIntervalAgo.getTimeSeconds()),
+            targetTimespan, storedPrev.getHeight());
+
+        int accuracyBytes = (int) (nextBlock.getDifficultyTarget() >>> 24) - 3;
+        long receivedTargetCompact = nextBlock.getDifficultyTarget();
+        long newTargetCompact = calculateNextTargetCompact(prev.getDifficultyTarget(), timespan, targetTimespan,
+            accuracyBytes);
+
+        if (newTargetCompact != receivedTargetCompact)
+            throw new VerificationException("Network provided difficulty bits do not match what was calculated: " +
+                    Long.toHexString(newTargetCompact) + " vs " + Long.toHexString(receivedTargetCompact));
+    }
+
+
+    /**
+     * Limit the adjustment step, to within a quarter and four times the target
+     * timespan before the bridge activates, and to 17280-27000 seconds after.
+     */
+    int limitTimespan(int timespan, final int targetTimespan, final int prevHeight) {
+        if(prevHeight >= nBridgeStartBlock){
             if (timespan < 17280)
                 timespan = 17280;
             if (timespan > 27000)
@@ -157,8 +189,40 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
             if (timespan > targetTimespan * 4)
                 timespan = targetTimespan * 4;
         }
+        return timespan;
+    }
 
-        BigInteger newTarget = Utils.decodeCompactBits(prev.getDifficultyTarget());
+    /**
+     * Calculate the next target in 256 bit arithmetic, falling back to
+     * {@link #calculateNextTargetCompactWithBigInteger(long, int, int, int)} if
+     * the previous target is negative or the product does not fit in 256 bits.
+     * Both must give the same result.
+     *
+     * @param accuracyBytes exponent of the received target, less three.
+     */
+    long calculateNextTargetCompact(final long prevTargetCompact, final int timespan,
+            final int targetTimespan, final int accuracyBytes) {
+        final UInt256 prevTarget = UInt256.fromCompactBits(prevTargetCompact);
+        final UInt256 product = prevTarget == null ? null : prevTarget.multiply(timespan);
+        if (product == null) {
+            return calculateNextTargetCompactWithBigInteger(prevTargetCompact, timespan, targetTimespan,
+                accuracyBytes);
+        }
+        UInt256 newTarget = product.divide(targetTimespan);
+        final UInt256 maxTarget = getMaxTargetAsUInt256();
+        if (newTarget.compareTo(maxTarget) > 0) {
+            log.info("Difficulty hit proof of work limit: {}", newTarget);
+            newTarget = maxTarget;
+        }
+
+        // The calculated difficulty is to a higher precision than received, so reduce here.
+        final UInt256 mask = UInt256.valueOf(0xFFFFFFL).shiftLeft(accuracyBytes * 8);
+        return newTarget.and(mask).encodeCompactBits();
+    }
+
+    long calculateNextTargetCompactWithBigInteger(final long prevTargetCompact, final int timespan,
+            final int targetTimespan, final int accuracyBytes) {
+        BigInteger newTarget = Utils.decodeCompactBits(prevTargetCompact);
         newTarget = newTarget.multiply(BigInteger.valueOf(timespan));
         newTarget = newTarget.divide(BigInteger.valueOf(targetTimespan));
 
@@ -167,19 +231,23 @@ public abstract class AbstractSyscoinParams extends NetworkParameters implements
             newTarget = this.getMaxTarget();
         }
 
-        int accuracyBytes = (int) (nextBlock.getDifficultyTarget() >>> 24) - 3;
-        long receivedTargetCompact = nextBlock.getDifficultyTarget();
-
-        // The calculated difficulty is to a higher precision than received, so reduce here.
         BigInteger mask = BigInteger.valueOf(0xFFFFFFL).shiftLeft(accuracyBytes * 8);
         newTarget = newTarget.and(mask);
-        long newTargetCompact = Utils.encodeCompactBits(newTarget);
-
-        if (newTargetCompact != receivedTargetCompact)
-            throw new VerificationException("Network provided difficulty bits do not match what was calculated: " +
-                    Long.toHexString(newTargetCompact) + " vs " + Long.toHexString(receivedTargetCompact));
+        return Utils.encodeCompactBits(newTarget);
     }
 
+    /**
+     * Get the maximum target as a 256 bit integer. Subclasses set the maximum
+     * target once, in their constructor.
+     */
+    protected UInt256 getMaxTargetAsUInt256() {
+        UInt256 target = maxTargetAsUInt256;
+        if (target == null) {
+            target = UInt256.fromBigInteger(getMaxTarget());
+            maxTargetAsUInt256 = target;
+        }
+        return target;
+    }
 
     public MonetaryFormat getMonetaryFormat() {
         return SYSCOIN;
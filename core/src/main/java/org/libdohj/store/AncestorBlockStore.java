@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A block store which can find an ancestor of a block by height, without the
+ * caller fetching each block in between, such as to find the start of a
+ * retarget period.
+ */
+public interface AncestorBlockStore extends BlockStore {
+    /**
+     * Get the ancestor of the given block at the given height, following the
+     * previous block hashes back from it.
+     *
+     * @return the ancestor, the block itself if it is at that height, or null if
+     * the block or any block back to the ancestor is not in the store.
+     */
+    @Nullable
+    StoredBlock getAncestor(StoredBlock block, int height) throws BlockStoreException;
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.MessageSerializer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.ChainFileLockedException;
+import org.libdohj.core.AltcoinSerializer;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A block store for SPV clients of merge-mined networks such as Syscoin. Like
+ * bitcoinj's {@link org.bitcoinj.store.SPVBlockStore} it keeps a ring of the most
+ * recent block headers in a memory-mapped file, but it also keeps their AuxPoW in
+ * a second memory-mapped ring, so blocks come back with the AuxPoW they were
+ * stored with.</p>
+ *
+ * <p>The main file holds a prologue, a ring of fixed size header records, and an
+ * open addressing index from block hash to record, so lookups by hash are a
+ * single probe sequence in the mapped file. Ancestors are found by following the
+ * previous block hashes through the records, building only the ancestor itself.
+ * The AuxPoW file, next to it with the suffix {@value #AUXPOW_FILE_SUFFIX}, is a
+ * short prologue and a ring of bytes; each header record notes where its AuxPoW
+ * starts and how long it is. When the AuxPoW ring wraps past an AuxPoW, the
+ * header is still returned, without it. The store will not open if the AuxPoW
+ * file is missing or does not match the main file.</p>
+ *
+ * <p>The chain head is written alternately to one of two slots, each with a
+ * sequence number and a checksum. If the process dies part way through updating
+ * the head, the slot being written fails its checksum on opening, and the
+ * previous head is used from the other slot. Only the head has this protection:
+ * {@link #put(StoredBlock)} writes the record, its index entry and the write
+ * cursor in place, in no guaranteed order and without forcing them to disk, so
+ * a crash part way through storing blocks can leave those inconsistent.</p>
+ */
+public class AuxPoWSPVBlockStore implements BatchBlockStore, AncestorBlockStore {
+    /** Default number of headers kept. */
+    public static final int DEFAULT_CAPACITY = 10000;
+    /** Default space allowed in the AuxPoW ring for each header. */
+    public static final int DEFAULT_AUXPOW_BYTES_PER_BLOCK = 1024;
+    /** Suffix added to the store's file name to name the AuxPoW file. */
+    public static final String AUXPOW_FILE_SUFFIX = ".auxpow";
+
+    static final String HEADER_MAGIC = "AXPW";
+    static final String AUXPOW_HEADER_MAGIC = "AXPR";
+    private static final int FORMAT_VERSION = 2;
+
+    // Prologue of the main file
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int CURSOR_OFFSET = 12;
+    private static final int AUXPOW_CAPACITY_OFFSET = 16;
+    private static final int AUXPOW_POSITION_OFFSET = 24;
+    static final int HEAD_SLOT_OFFSET = 32;
+    // Sequence number, hash and checksum of the sequence number and hash
+    static final int HEAD_SLOT_SIZE = 48;
+    private static final int HEAD_CHECKSUM_OFFSET = 40;
+    static final int FILE_PROLOGUE_BYTES = HEAD_SLOT_OFFSET + 2 * HEAD_SLOT_SIZE;
+
+    // Prologue of the AuxPoW file: magic, version and capacity as in the main file
+    static final int AUXPOW_FILE_PROLOGUE_BYTES = 16;
+
+    // Header records
+    private static final int HASH_OFFSET = 0;
+    private static final int HEADER_OFFSET = HASH_OFFSET + 32;
+    private static final int HEIGHT_OFFSET = HEADER_OFFSET + Block.HEADER_SIZE;
+    private static final int CHAIN_WORK_OFFSET = HEIGHT_OFFSET + 4;
+    private static final int AUXPOW_START_OFFSET = CHAIN_WORK_OFFSET + CompactHeaderStore.CHAIN_WORK_BYTES;
+    private static final int AUXPOW_LENGTH_OFFSET = AUXPOW_START_OFFSET + 8;
+    private static final int FLAGS_OFFSET = AUXPOW_LENGTH_OFFSET + 4;
+    static final int RECORD_SIZE = FLAGS_OFFSET + 4;
+
+    private static final int FLAG_IN_USE = 1;
+
+    private final NetworkParameters params;
+    /** Serializer for rebuilding blocks, which defers AuxPoW parsing where it can. */
+    private final MessageSerializer serializer;
+    private final int capacity;
+    private final long auxpowCapacity;
+    private final int indexOffset;
+    private final int indexMask;
+
+    private RandomAccessFile randomAccessFile;
+    private RandomAccessFile auxpowRandomAccessFile;
+    private FileLock fileLock;
+    private MappedByteBuffer buffer;
+    private MappedByteBuffer auxpowBuffer;
+
+    /** Next record to write. */
+    private int cursor;
+    /** Total bytes ever written to the AuxPoW ring. */
+    private long auxpowPosition;
+    private long headSequence;
+    private Sha256Hash chainHeadHash;
+
+    public AuxPoWSPVBlockStore(final NetworkParameters params, final File file) throws BlockStoreException {
+        this(params, file, DEFAULT_CAPACITY, (long) DEFAULT_CAPACITY * DEFAULT_AUXPOW_BYTES_PER_BLOCK);
+    }
+
+    /**
+     * Open the store at the given file, creating it if it does not exist.
+     *
+     * @param capacity the number of headers to keep.
+     * @param auxpowCapacity the size of the AuxPoW ring, in bytes.
+     */
+    public AuxPoWSPVBlockStore(final NetworkParameters params, final File file, final int capacity,
+            final long auxpowCapacity) throws BlockStoreException {
+        checkArgument(capacity > 0, "Capacity out of range");
+        checkArgument(auxpowCapacity > 0 && auxpowCapacity <= Integer.MAX_VALUE - AUXPOW_FILE_PROLOGUE_BYTES,
+            "AuxPoW capacity out of range");
+        final int fileSize = getFileSize(capacity);
+        this.params = params;
+        this.serializer = params.getDefaultSerializer() instanceof AltcoinSerializer
+            ? new AltcoinSerializer(params, false, true)
+            : params.getSerializer(false);
+        this.capacity = capacity;
+        this.auxpowCapacity = auxpowCapacity;
+        this.indexOffset = FILE_PROLOGUE_BYTES + capacity * RECORD_SIZE;
+        this.indexMask = (int) indexCapacity(capacity) - 1;
+
+        final File auxpowFile = new File(file.getPath() + AUXPOW_FILE_SUFFIX);
+        final boolean exists = file.exists();
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            fileLock = randomAccessFile.getChannel().tryLock();
+            if (null == fileLock) {
+                throw new ChainFileLockedException("Store file is already locked by another process");
+            }
+            if (exists && randomAccessFile.length() != fileSize) {
+                throw new BlockStoreException("File size on disk does not match expected size: " +
+                    randomAccessFile.length() + " vs " + fileSize);
+            }
+            randomAccessFile.setLength(fileSize);
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+
+            final long auxpowFileSize = AUXPOW_FILE_PROLOGUE_BYTES + auxpowCapacity;
+            if (exists && !auxpowFile.exists()) {
+                throw new BlockStoreException("AuxPoW file is missing: " + auxpowFile);
+            }
+            auxpowRandomAccessFile = new RandomAccessFile(auxpowFile, "rw");
+            if (exists && auxpowRandomAccessFile.length() != auxpowFileSize) {
+                throw new BlockStoreException("AuxPoW file size on disk does not match expected size: " +
+                    auxpowRandomAccessFile.length() + " vs " + auxpowFileSize);
+            }
+            auxpowRandomAccessFile.setLength(auxpowFileSize);
+            auxpowBuffer = auxpowRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, auxpowFileSize);
+
+            if (exists) {
+                open();
+            } else {
+                initNewStore();
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw new BlockStoreException(e);
+        } catch (BlockStoreException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the size of the main file for a store with the given capacity.
+     * @throws IllegalArgumentException if the file would be too large to map.
+     */
+    public static int getFileSize(final int capacity) {
+        final long fileSize = FILE_PROLOGUE_BYTES + (long) capacity * RECORD_SIZE + indexCapacity(capacity) * 4;
+        checkArgument(fileSize <= Integer.MAX_VALUE, "Capacity out of range");
+        return (int) fileSize;
+    }
+
+    /**
+     * The index is kept at most half full, so probe sequences stay short. It
+     * may take up to four slots per record, once rounded up to a power of two.
+     */
+    private static long indexCapacity(final int capacity) {
+        return Long.highestOneBit((long) capacity * 2 - 1) * 2;
+    }
+
+    private void initNewStore() throws BlockStoreException {
+        final byte[] magic = HEADER_MAGIC.getBytes();
+        for (int i = 0; i < magic.length; i++) {
+            buffer.put(i, magic[i]);
+        }
+        buffer.putInt(VERSION_OFFSET, FORMAT_VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putLong(AUXPOW_CAPACITY_OFFSET, auxpowCapacity);
+
+        final byte[] auxpowMagic = AUXPOW_HEADER_MAGIC.getBytes();
+        for (int i = 0; i < auxpowMagic.length; i++) {
+            auxpowBuffer.put(i, auxpowMagic[i]);
+        }
+        auxpowBuffer.putInt(VERSION_OFFSET, FORMAT_VERSION);
+        auxpowBuffer.putLong(CAPACITY_OFFSET, auxpowCapacity);
+        cursor = 0;
+        auxpowPosition = 0;
+        headSequence = 0;
+        writePositions();
+
+        final Block genesisHeader = params.getGenesisBlock().cloneAsHeader();
+        final StoredBlock storedGenesis = new StoredBlock(genesisHeader, genesisHeader.getWork(), 0);
+        put(storedGenesis);
+        setChainHead(storedGenesis);
+    }
+
+    private void open() throws BlockStoreException {
+        final byte[] magic = HEADER_MAGIC.getBytes();
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(i) != magic[i]) {
+                throw new BlockStoreException("Store file is not an AuxPoW SPV block store");
+            }
+        }
+        if (buffer.getInt(VERSION_OFFSET) != FORMAT_VERSION) {
+            throw new BlockStoreException("Unsupported store version " + buffer.getInt(VERSION_OFFSET));
+        }
+        if (buffer.getInt(CAPACITY_OFFSET) != capacity
+                || buffer.getLong(AUXPOW_CAPACITY_OFFSET) != auxpowCapacity) {
+            throw new BlockStoreException("Store was created with a different capacity");
+        }
+        final byte[] auxpowMagic = AUXPOW_HEADER_MAGIC.getBytes();
+        for (int i = 0; i < auxpowMagic.length; i++) {
+            if (auxpowBuffer.get(i) != auxpowMagic[i]) {
+                throw new BlockStoreException("AuxPoW file is not an AuxPoW SPV block store ring");
+            }
+        }
+        if (auxpowBuffer.getInt(VERSION_OFFSET) != FORMAT_VERSION
+                || auxpowBuffer.getLong(CAPACITY_OFFSET) != auxpowCapacity) {
+            throw new BlockStoreException("AuxPoW file does not match the store");
+        }
+        cursor = buffer.getInt(CURSOR_OFFSET);
+        auxpowPosition = buffer.getLong(AUXPOW_POSITION_OFFSET);
+
+        // Use the most recent head which was completely written
+        headSequence = -1;
+        for (int slot = 0; slot < 2; slot++) {
+            final int offset = HEAD_SLOT_OFFSET + slot * HEAD_SLOT_SIZE;
+            final byte[] bytes = new byte[HEAD_CHECKSUM_OFFSET];
+            getBytes(buffer, offset, bytes);
+            final long sequence = buffer.getLong(offset);
+            if (buffer.getInt(offset + HEAD_CHECKSUM_OFFSET) == checksum(bytes) && sequence > headSequence) {
+                headSequence = sequence;
+                chainHeadHash = Sha256Hash.wrap(Arrays.copyOfRange(bytes, 8, 8 + 32));
+            }
+        }
+        if (headSequence < 0) {
+            throw new BlockStoreException("Corrupted block store: no valid chain head");
+        }
+    }
+
+    @Override
+    public synchronized void put(final StoredBlock block) throws BlockStoreException {
+        checkOpen();
+        write(block);
+        writePositions();
+    }
+
+    @Override
+    public synchronized void putAll(final List<StoredBlock> blocks) throws BlockStoreException {
+        checkOpen();
+        for (StoredBlock block : blocks) {
+            write(block);
+        }
+        writePositions();
+    }
+
+    private void write(final StoredBlock block) throws BlockStoreException {
+        final Sha256Hash hash = block.getHeader().getHash();
+        int record = find(hash);
+        final boolean inserting = record < 0;
+        if (inserting) {
+            record = cursor;
+            if ((buffer.getInt(recordOffset(record) + FLAGS_OFFSET) & FLAG_IN_USE) != 0) {
+                // The ring has wrapped, so the oldest header makes way
+                remove(record);
+            }
+            cursor = (cursor + 1) % capacity;
+        }
+
+        final byte[] bytes = new byte[RECORD_SIZE];
+        System.arraycopy(hash.getBytes(), 0, bytes, HASH_OFFSET, 32);
+        CompactHeaderStore.writeHeader(block.getHeader(), bytes, HEADER_OFFSET);
+        Utils.uint32ToByteArrayLE(block.getHeight(), bytes, HEIGHT_OFFSET);
+        CompactHeaderStore.writeChainWork(hash, block.getChainWork(), bytes, CHAIN_WORK_OFFSET);
+        final ByteBuffer fields = ByteBuffer.wrap(bytes);
+        final byte[] auxpow = getAuxPoWBytes(block.getHeader());
+        if (null != auxpow && auxpow.length <= auxpowCapacity) {
+            fields.putLong(AUXPOW_START_OFFSET, auxpowPosition);
+            fields.putInt(AUXPOW_LENGTH_OFFSET, auxpow.length);
+            writeAuxPoW(auxpow);
+        }
+        fields.putInt(FLAGS_OFFSET, FLAG_IN_USE);
+        putBytes(buffer, recordOffset(record), bytes);
+
+        if (inserting) {
+            insert(hash, record);
+        }
+    }
+
+    @Override
+    @Nullable
+    public synchronized StoredBlock get(final Sha256Hash hash) throws BlockStoreException {
+        checkOpen();
+        final int record = find(hash);
+        return record < 0 ? null : read(record);
+    }
+
+    @Override
+    @Nullable
+    public synchronized StoredBlock getAncestor(final StoredBlock block, final int height)
+            throws BlockStoreException {
+        checkOpen();
+        if (height < 0 || height > block.getHeight()) {
+            return null;
+        }
+        int record = find(block.getHeader().getHash());
+        final byte[] prevHash = new byte[32];
+        for (int recordHeight = block.getHeight(); recordHeight > height && record >= 0; recordHeight--) {
+            getBytes(buffer, recordOffset(record) + HEADER_OFFSET + 4, prevHash);
+            record = find(Sha256Hash.wrapReversed(prevHash));
+        }
+        return record < 0 ? null : read(record);
+    }
+
+    @Override
+    public synchronized StoredBlock getChainHead() throws BlockStoreException {
+        checkOpen();
+        final StoredBlock head = get(chainHeadHash);
+        if (null == head) {
+            throw new BlockStoreException("Corrupted block store: could not find chain head: " + chainHeadHash);
+        }
+        return head;
+    }
+
+    @Override
+    public synchronized void setChainHead(final StoredBlock chainHead) throws BlockStoreException {
+        checkOpen();
+        final Sha256Hash hash = chainHead.getHeader().getHash();
+        // Write the slot not holding the current head, so it survives a torn write
+        final long sequence = headSequence + 1;
+        final int offset = HEAD_SLOT_OFFSET + (int) (sequence & 1) * HEAD_SLOT_SIZE;
+        final ByteBuffer slot = ByteBuffer.allocate(HEAD_CHECKSUM_OFFSET);
+        slot.putLong(sequence);
+        slot.put(hash.getBytes());
+        putBytes(buffer, offset, slot.array());
+        buffer.putInt(offset + HEAD_CHECKSUM_OFFSET, checksum(slot.array()));
+        headSequence = sequence;
+        chainHeadHash = hash;
+    }
+
+    @Override
+    public synchronized void close() throws BlockStoreException {
+        if (null == buffer) {
+            return;
+        }
+        try {
+            buffer.force();
+            auxpowBuffer.force();
+            buffer = null;
+            auxpowBuffer = null;
+            fileLock.release();
+            randomAccessFile.close();
+            auxpowRandomAccessFile.close();
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return params;
+    }
+
+    private void closeQuietly() {
+        buffer = null;
+        auxpowBuffer = null;
+        try {
+            if (null != randomAccessFile) {
+                randomAccessFile.close();
+            }
+            if (null != auxpowRandomAccessFile) {
+                auxpowRandomAccessFile.close();
+            }
+        } catch (IOException e) {
+            // Already failing, report the original problem
+        }
+    }
+
+    private void checkOpen() throws BlockStoreException {
+        if (null == buffer) {
+            throw new BlockStoreException("Store is closed");
+        }
+    }
+
+    private void writePositions() {
+        buffer.putInt(CURSOR_OFFSET, cursor);
+        buffer.putLong(AUXPOW_POSITION_OFFSET, auxpowPosition);
+    }
+
+    private static int checksum(final byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the serialized AuxPoW of the block, or null if it has none.
+     */
+    @Nullable
+    private static byte[] getAuxPoWBytes(final Block header) {
+        if (!(header instanceof AltcoinBlock) || !((AltcoinBlock) header).hasAuxPoW()) {
+            return null;
+        }
+        // The AuxPoW directly follows the 80 byte header
+        final byte[] bytes = header.cloneAsHeader().bitcoinSerialize();
+        return Arrays.copyOfRange(bytes, Block.HEADER_SIZE, bytes.length);
+    }
+
+    private void writeAuxPoW(final byte[] auxpow) {
+        final int position = (int) (auxpowPosition % auxpowCapacity);
+        final int first = (int) Math.min(auxpow.length, auxpowCapacity - position);
+        final ByteBuffer dest = auxpowBuffer.duplicate();
+        dest.position(AUXPOW_FILE_PROLOGUE_BYTES + position);
+        dest.put(auxpow, 0, first);
+        dest.position(AUXPOW_FILE_PROLOGUE_BYTES);
+        dest.put(auxpow, first, auxpow.length - first);
+        auxpowPosition += auxpow.length;
+    }
+
+    /**
+     * @return the AuxPoW starting at the given position in the ring, or null if
+     * it has since been overwritten.
+     */
+    @Nullable
+    private byte[] readAuxPoW(final long start, final int length) {
+        if (auxpowPosition - start > auxpowCapacity) {
+            return null;
+        }
+        final byte[] auxpow = new byte[length];
+        final int position = (int) (start % auxpowCapacity);
+        final int first = (int) Math.min(length, auxpowCapacity - position);
+        final ByteBuffer src = auxpowBuffer.duplicate();
+        src.position(AUXPOW_FILE_PROLOGUE_BYTES + position);
+        src.get(auxpow, 0, first);
+        src.position(AUXPOW_FILE_PROLOGUE_BYTES);
+        src.get(auxpow, first, length - first);
+        return auxpow;
+    }
+
+    private StoredBlock read(final int record) {
+        final byte[] bytes = new byte[RECORD_SIZE];
+        getBytes(buffer, recordOffset(record), bytes);
+        final ByteBuffer fields = ByteBuffer.wrap(bytes);
+        final int auxpowLength = fields.getInt(AUXPOW_LENGTH_OFFSET);
+        final byte[] auxpow = auxpowLength > 0
+            ? readAuxPoW(fields.getLong(AUXPOW_START_OFFSET), auxpowLength)
+            : null;
+
+        final byte[] blockBytes = new byte[Block.HEADER_SIZE + (null == auxpow ? 0 : auxpow.length)];
+        System.arraycopy(bytes, HEADER_OFFSET, blockBytes, 0, Block.HEADER_SIZE);
+        if (null != auxpow) {
+            System.arraycopy(auxpow, 0, blockBytes, Block.HEADER_SIZE, auxpow.length);
+        }
+        final Block header = serializer.makeBlock(blockBytes);
+        final int height = (int) Utils.readUint32(bytes, HEIGHT_OFFSET);
+        return new StoredBlock(header, CompactHeaderStore.readChainWork(bytes, CHAIN_WORK_OFFSET), height);
+    }
+
+    private static int recordOffset(final int record) {
+        return FILE_PROLOGUE_BYTES + record * RECORD_SIZE;
+    }
+
+    private int getSlot(final int slot) {
+        return buffer.getInt(indexOffset + slot * 4);
+    }
+
+    private void setSlot(final int slot, final int value) {
+        buffer.putInt(indexOffset + slot * 4, value);
+    }
+
+    private long recordKey(final int record) {
+        final byte[] hash = new byte[32];
+        getBytes(buffer, recordOffset(record) + HASH_OFFSET, hash);
+        return CompactHeaderStore.indexKey(Sha256Hash.wrap(hash));
+    }
+
+    private boolean hashEquals(final int record, final byte[] hash) {
+        final int offset = recordOffset(record) + HASH_OFFSET;
+        for (int i = hash.length - 1; i >= 0; i--) {
+            if (buffer.get(offset + i) != hash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the record holding the given block, or -1 if there is none.
+     */
+    private int find(final Sha256Hash hash) {
+        final byte[] bytes = hash.getBytes();
+        int value;
+        for (int i = CompactHeaderStore.slot(CompactHeaderStore.indexKey(hash), indexMask);
+                (value = getSlot(i)) != 0; i = (i + 1) & indexMask) {
+            if (hashEquals(value - 1, bytes)) {
+                return value - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index slots hold the record number plus one, so zero marks an empty slot.
+     */
+    private void insert(final Sha256Hash hash, final int record) {
+        int i = CompactHeaderStore.slot(CompactHeaderStore.indexKey(hash), indexMask);
+        while (getSlot(i) != 0) {
+            i = (i + 1) & indexMask;
+        }
+        setSlot(i, record + 1);
+    }
+
+    /**
+     * Remove a record from the index, shifting later entries of its probe
+     * sequence back so no tombstone is needed.
+     */
+    private void remove(final int record) {
+        int hole = CompactHeaderStore.slot(recordKey(record), indexMask);
+        while (getSlot(hole) != record + 1) {
+            hole = (hole + 1) & indexMask;
+        }
+        for (int i = (hole + 1) & indexMask; getSlot(i) != 0; i = (i + 1) & indexMask) {
+            final int value = getSlot(i);
+            final int home = CompactHeaderStore.slot(recordKey(value - 1), indexMask);
+            // The entry can fill the hole if the hole lies between its home and
+            // where it is now
+            if (((i - home) & indexMask) >= ((i - hole) & indexMask)) {
+                setSlot(hole, value);
+                hole = i;
+            }
+        }
+        setSlot(hole, 0);
+    }
+
+    private static void getBytes(final ByteBuffer buffer, final int offset, final byte[] dest) {
+        final ByteBuffer src = buffer.duplicate();
+        src.position(offset);
+        src.get(dest);
+    }
+
+    private static void putBytes(final ByteBuffer buffer, final int offset, final byte[] src) {
+        final ByteBuffer dest = buffer.duplicate();
+        dest.position(offset);
+        dest.put(src);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import java.util.List;
+
+/**
+ * A block store which can store a run of blocks in one operation, rather than
+ * taking its lock and updating its bookkeeping once per block.
+ */
+public interface BatchBlockStore extends BlockStore {
+    /**
+     * Store each of the given blocks, in order. Equivalent to calling
+     * {@link #put(StoredBlock)} for each.
+     */
+    void putAll(List<StoredBlock> blocks) throws BlockStoreException;
+}
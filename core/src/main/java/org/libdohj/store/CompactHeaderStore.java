@@ -0,0 +1,381 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.store.BlockStoreException;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>An in-memory block store which packs each block into a fixed size record
+ * off the Java heap: the block hash, the 80 byte header, the height and the chain
+ * work. A header chain of millions of blocks then takes a few hundred megabytes,
+ * rather than the gigabytes needed to keep a graph of objects per block.</p>
+ *
+ * <p>Only the 80 byte header is kept, so any AuxPoW is dropped once the block has
+ * been verified and stored. Blocks are rebuilt from their record when read, so
+ * {@link StoredBlock}s returned by this store never carry an AuxPoW.</p>
+ *
+ * <p>Lookups by hash go through an open addressing index on the heap, costing
+ * 24 bytes per block at most. Each block also keeps the records of its parent
+ * and of one more distant ancestor, chosen as in bitcoind's skip list, so
+ * {@link #getAncestor(StoredBlock, int)} takes a logarithmic number of steps.
+ * These cost a further 8 bytes per block.</p>
+ */
+public class CompactHeaderStore implements BatchBlockStore, AncestorBlockStore {
+    /** Size of the chain work, as in {@link StoredBlock#CHAIN_WORK_BYTES}. */
+    static final int CHAIN_WORK_BYTES = 12;
+
+    private static final int HASH_OFFSET = 0;
+    private static final int HEADER_OFFSET = HASH_OFFSET + 32;
+    private static final int HEIGHT_OFFSET = HEADER_OFFSET + Block.HEADER_SIZE;
+    private static final int CHAIN_WORK_OFFSET = HEIGHT_OFFSET + 4;
+    static final int RECORD_SIZE = CHAIN_WORK_OFFSET + CHAIN_WORK_BYTES;
+
+    /** Records per off-heap segment, 1MiB each. */
+    private static final int SEGMENT_RECORDS = 8192;
+
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final NetworkParameters params;
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private int recordCount = 0;
+
+    // Open addressing index. A value of zero marks an empty slot, otherwise it is
+    // the record number plus one. Keys are the low 64 bits of the block hash.
+    private long[] indexKeys;
+    private int[] indexValues;
+
+    // Record of each block's parent, and of its skip list ancestor, or -1 where
+    // that block is not in the store.
+    private int[] parents;
+    private int[] skips;
+
+    private int chainHead = -1;
+    private boolean closed = false;
+
+    public CompactHeaderStore(final NetworkParameters params) throws BlockStoreException {
+        this.params = params;
+        this.indexKeys = new long[INITIAL_INDEX_CAPACITY];
+        this.indexValues = new int[INITIAL_INDEX_CAPACITY];
+        this.parents = new int[INITIAL_INDEX_CAPACITY];
+        this.skips = new int[INITIAL_INDEX_CAPACITY];
+
+        final Block genesisHeader = params.getGenesisBlock().cloneAsHeader();
+        final StoredBlock storedGenesis = new StoredBlock(genesisHeader, genesisHeader.getWork(), 0);
+        put(storedGenesis);
+        setChainHead(storedGenesis);
+    }
+
+    @Override
+    public synchronized void put(final StoredBlock block) throws BlockStoreException {
+        checkOpen();
+        final Sha256Hash hash = block.getHeader().getHash();
+        int record = find(hash);
+        if (record < 0) {
+            record = recordCount;
+            if (record % SEGMENT_RECORDS == 0) {
+                segments.add(ByteBuffer.allocateDirect(SEGMENT_RECORDS * RECORD_SIZE));
+            }
+            recordCount++;
+            insert(indexKey(hash), record);
+            write(record, hash, block);
+            link(record, block);
+        } else {
+            write(record, hash, block);
+        }
+    }
+
+    @Override
+    public synchronized void putAll(final List<StoredBlock> blocks) throws BlockStoreException {
+        for (StoredBlock block : blocks) {
+            put(block);
+        }
+    }
+
+    @Override
+    @Nullable
+    public synchronized StoredBlock get(final Sha256Hash hash) throws BlockStoreException {
+        checkOpen();
+        final int record = find(hash);
+        return record < 0 ? null : read(record);
+    }
+
+    @Override
+    @Nullable
+    public synchronized StoredBlock getAncestor(final StoredBlock block, final int height)
+            throws BlockStoreException {
+        checkOpen();
+        final int record = find(block.getHeader().getHash());
+        if (record < 0 || height < 0 || height > block.getHeight()) {
+            return null;
+        }
+        final int ancestor = ancestor(record, block.getHeight(), height);
+        return ancestor < 0 ? null : read(ancestor);
+    }
+
+    @Override
+    public synchronized StoredBlock getChainHead() throws BlockStoreException {
+        checkOpen();
+        return read(chainHead);
+    }
+
+    @Override
+    public synchronized void setChainHead(final StoredBlock chainHead) throws BlockStoreException {
+        checkOpen();
+        final int record = find(chainHead.getHeader().getHash());
+        if (record < 0) {
+            throw new BlockStoreException("Chain head " + chainHead.getHeader().getHash() + " is not in the store");
+        }
+        this.chainHead = record;
+    }
+
+    /**
+     * Release the off-heap records. The store cannot be used afterwards.
+     */
+    @Override
+    public synchronized void close() throws BlockStoreException {
+        closed = true;
+        segments.clear();
+        indexKeys = null;
+        indexValues = null;
+        parents = null;
+        skips = null;
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return params;
+    }
+
+    /**
+     * @return the number of blocks in the store.
+     */
+    public synchronized int size() {
+        return recordCount;
+    }
+
+    private void checkOpen() throws BlockStoreException {
+        if (closed) {
+            throw new BlockStoreException("Store is closed");
+        }
+    }
+
+    /**
+     * The hash is shown big-endian, so the proof of work puts zeroes at the start.
+     * Take the key from the end instead.
+     */
+    static long indexKey(final Sha256Hash hash) {
+        final byte[] bytes = hash.getBytes();
+        return Utils.readInt64(bytes, 24);
+    }
+
+    static int slot(final long key, final int mask) {
+        final long mixed = key ^ (key >>> 32);
+        return (int) mixed & mask;
+    }
+
+    /**
+     * @return the record holding the given block, or -1 if there is none.
+     */
+    private int find(final Sha256Hash hash) {
+        final long key = indexKey(hash);
+        final int mask = indexValues.length - 1;
+        for (int i = slot(key, mask); indexValues[i] != 0; i = (i + 1) & mask) {
+            if (indexKeys[i] == key && hashEquals(indexValues[i] - 1, hash.getBytes())) {
+                return indexValues[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(final long key, final int record) {
+        // Keep the index at most half full, so probe sequences stay short
+        if (recordCount * 2 > indexValues.length) {
+            final long[] oldKeys = indexKeys;
+            final int[] oldValues = indexValues;
+            indexKeys = new long[oldValues.length * 2];
+            indexValues = new int[oldValues.length * 2];
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != 0) {
+                    place(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        place(key, record + 1);
+    }
+
+    private void place(final long key, final int value) {
+        final int mask = indexValues.length - 1;
+        int i = slot(key, mask);
+        while (indexValues[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        indexKeys[i] = key;
+        indexValues[i] = value;
+    }
+
+    /**
+     * Note the parent and skip list ancestor of a newly added record. Blocks
+     * whose parent is not yet in the store get neither, so lookups through them
+     * stop there.
+     */
+    private void link(final int record, final StoredBlock block) {
+        if (record == parents.length) {
+            parents = Arrays.copyOf(parents, record * 2);
+            skips = Arrays.copyOf(skips, record * 2);
+        }
+        final int height = block.getHeight();
+        final int parent = height > 0 ? find(block.getHeader().getPrevBlockHash()) : -1;
+        parents[record] = parent;
+        skips[record] = parent < 0 ? -1 : ancestor(parent, height - 1, skipHeight(height));
+    }
+
+    /**
+     * Follow skip list and parent links back from a record, as bitcoind's
+     * CBlockIndex::GetAncestor does.
+     *
+     * @return the record of the ancestor at the given height, or -1 if a link
+     * on the way is missing.
+     */
+    private int ancestor(int record, int recordHeight, final int height) {
+        while (recordHeight > height && record >= 0) {
+            final int skipHeight = skipHeight(recordHeight);
+            final int prevSkipHeight = skipHeight(recordHeight - 1);
+            if (skips[record] >= 0 && (skipHeight == height
+                    || (skipHeight > height && !(prevSkipHeight < skipHeight - 2 && prevSkipHeight >= height)))) {
+                // Only skip if the parent's skip would not get closer
+                record = skips[record];
+                recordHeight = skipHeight;
+            } else {
+                record = parents[record];
+                recordHeight--;
+            }
+        }
+        return record;
+    }
+
+    /**
+     * @return the height of the ancestor a block at the given height skips to,
+     * as bitcoind's GetSkipHeight.
+     */
+    static int skipHeight(final int height) {
+        if (height < 2) {
+            return 0;
+        }
+        // Any lower height would do, but this choice keeps lookups logarithmic
+        return (height & 1) != 0
+            ? invertLowestOne(invertLowestOne(height - 1)) + 1
+            : invertLowestOne(height);
+    }
+
+    private static int invertLowestOne(final int n) {
+        return n & (n - 1);
+    }
+
+    private ByteBuffer segment(final int record) {
+        return segments.get(record / SEGMENT_RECORDS);
+    }
+
+    private static int position(final int record) {
+        return (record % SEGMENT_RECORDS) * RECORD_SIZE;
+    }
+
+    private boolean hashEquals(final int record, final byte[] hash) {
+        final ByteBuffer segment = segment(record);
+        final int position = position(record) + HASH_OFFSET;
+        for (int i = 0; i < hash.length; i++) {
+            if (segment.get(position + i) != hash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(final int record, final Sha256Hash hash, final StoredBlock block) throws BlockStoreException {
+        final byte[] bytes = new byte[RECORD_SIZE];
+        System.arraycopy(hash.getBytes(), 0, bytes, HASH_OFFSET, 32);
+        writeHeader(block.getHeader(), bytes, HEADER_OFFSET);
+        Utils.uint32ToByteArrayLE(block.getHeight(), bytes, HEIGHT_OFFSET);
+        writeChainWork(hash, block.getChainWork(), bytes, CHAIN_WORK_OFFSET);
+
+        final ByteBuffer segment = segment(record).duplicate();
+        segment.position(position(record));
+        segment.put(bytes);
+    }
+
+    /**
+     * Write the 80 byte header of a block, directly from its fields rather than
+     * serializing the block and any AuxPoW it carries.
+     */
+    static void writeHeader(final Block header, final byte[] dest, final int offset) {
+        final long rawVersion = header instanceof AltcoinBlock
+            ? ((AltcoinBlock) header).getRawVersion()
+            : header.getVersion();
+        Utils.uint32ToByteArrayLE(rawVersion, dest, offset);
+        System.arraycopy(header.getPrevBlockHash().getReversedBytes(), 0, dest, offset + 4, 32);
+        System.arraycopy(header.getMerkleRoot().getReversedBytes(), 0, dest, offset + 36, 32);
+        Utils.uint32ToByteArrayLE(header.getTimeSeconds(), dest, offset + 68);
+        Utils.uint32ToByteArrayLE(header.getDifficultyTarget(), dest, offset + 72);
+        Utils.uint32ToByteArrayLE(header.getNonce(), dest, offset + 76);
+    }
+
+    /**
+     * Write chain work as a {@link #CHAIN_WORK_BYTES} byte unsigned big-endian
+     * number.
+     */
+    static void writeChainWork(final Sha256Hash hash, final BigInteger work, final byte[] dest,
+            final int offset) throws BlockStoreException {
+        final byte[] chainWork = work.toByteArray();
+        // Drop the sign byte, if any; chain work is never negative
+        final int start = chainWork.length > 1 && chainWork[0] == 0 ? 1 : 0;
+        final int workLength = chainWork.length - start;
+        if (workLength > CHAIN_WORK_BYTES) {
+            throw new BlockStoreException("Chain work of " + hash + " does not fit in " + CHAIN_WORK_BYTES + " bytes");
+        }
+        Arrays.fill(dest, offset, offset + CHAIN_WORK_BYTES - workLength, (byte) 0);
+        System.arraycopy(chainWork, start, dest, offset + CHAIN_WORK_BYTES - workLength, workLength);
+    }
+
+    static BigInteger readChainWork(final byte[] src, final int offset) {
+        return new BigInteger(1, Arrays.copyOfRange(src, offset, offset + CHAIN_WORK_BYTES));
+    }
+
+    private StoredBlock read(final int record) {
+        final ByteBuffer segment = segment(record).duplicate();
+        segment.position(position(record) + HEADER_OFFSET);
+        final byte[] bytes = new byte[RECORD_SIZE - HEADER_OFFSET];
+        segment.get(bytes);
+
+        final byte[] headerBytes = new byte[Block.HEADER_SIZE];
+        System.arraycopy(bytes, 0, headerBytes, 0, Block.HEADER_SIZE);
+        final Block header = params.getDefaultSerializer().makeBlock(headerBytes);
+        final int height = (int) Utils.readUint32(bytes, HEIGHT_OFFSET - HEADER_OFFSET);
+        return new StoredBlock(header, readChainWork(bytes, CHAIN_WORK_OFFSET - HEADER_OFFSET), height);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Validates a run of consecutive block headers, such as those from a headers
+ * message, and stores them in one batch. Each header is checked as the block
+ * chain would check it when adding it: that it connects to the one before, its
+ * proof of work and timestamp, checkpoints, and the network's difficulty rules.
+ * Like the block chain, the timestamp is only checked against the median of the
+ * previous eleven blocks if asked to; an SPV chain does not check it.</p>
+ *
+ * <p>Headers in the run, and the few blocks before it the checks need, are kept
+ * in memory while validating, so the block store is only read for blocks from
+ * before the run and only written once the whole run is valid. If any header
+ * fails, nothing is stored.</p>
+ *
+ * <p>Checks which depend on the state of a particular chain, such as rejecting
+ * outdated block versions once a majority have upgraded, are left to the block
+ * chain. The chain head is not changed.</p>
+ */
+public class HeaderRunValidator {
+    /** Number of blocks whose median timestamp a new block must exceed. */
+    private static final int MEDIAN_TIMESPAN_BLOCKS = 11;
+
+    private final NetworkParameters params;
+    private final boolean checkMedianTime;
+
+    /**
+     * Validator which checks headers as an SPV block chain does, so without the
+     * median timestamp check.
+     */
+    public HeaderRunValidator(final NetworkParameters params) {
+        this(params, false);
+    }
+
+    /**
+     * @param checkMedianTime whether to reject headers whose timestamp is not
+     * after the median of the previous eleven blocks, as a chain which verifies
+     * transactions does.
+     */
+    public HeaderRunValidator(final NetworkParameters params, final boolean checkMedianTime) {
+        this.params = params;
+        this.checkMedianTime = checkMedianTime;
+    }
+
+    /**
+     * Validate a run of headers.
+     *
+     * @param prev the block the first header builds on.
+     * @param headers consecutive headers, in order.
+     * @param store the store holding prev and the blocks before it.
+     * @return the headers in stored form, in order.
+     * @throws VerificationException if any header is invalid.
+     */
+    public List<StoredBlock> validate(final StoredBlock prev, final List<? extends Block> headers,
+            final BlockStore store) throws VerificationException, BlockStoreException {
+        final RunStore runStore = new RunStore(store);
+        runStore.put(prev);
+
+        // Timestamps of the most recent blocks, oldest first
+        final long[] recentTimes = new long[MEDIAN_TIMESPAN_BLOCKS];
+        int recentCount = 0;
+        if (checkMedianTime) {
+            StoredBlock cursor = prev;
+            while (true) {
+                recentTimes[MEDIAN_TIMESPAN_BLOCKS - ++recentCount] = cursor.getHeader().getTimeSeconds();
+                if (recentCount == MEDIAN_TIMESPAN_BLOCKS || null == (cursor = cursor.getPrev(runStore))) {
+                    break;
+                }
+            }
+            System.arraycopy(recentTimes, MEDIAN_TIMESPAN_BLOCKS - recentCount, recentTimes, 0, recentCount);
+        }
+        final long[] sorted = new long[MEDIAN_TIMESPAN_BLOCKS];
+
+        final List<StoredBlock> stored = new ArrayList<StoredBlock>(headers.size());
+        StoredBlock storedPrev = prev;
+        for (Block block : headers) {
+            final Block header = null == block.getTransactions() ? block : block.cloneAsHeader();
+            final Sha256Hash prevHash = storedPrev.getHeader().getHash();
+            if (!header.getPrevBlockHash().equals(prevHash)) {
+                throw new VerificationException("Header " + header.getHashAsString() + " does not connect to "
+                    + prevHash);
+            }
+            header.verifyHeader();
+
+            final int height = storedPrev.getHeight() + 1;
+            if (!params.passesCheckpoint(height, header.getHash())) {
+                throw new VerificationException("Block failed checkpoint lockin at " + height);
+            }
+
+            if (checkMedianTime) {
+                System.arraycopy(recentTimes, 0, sorted, 0, recentCount);
+                Arrays.sort(sorted, 0, recentCount);
+                if (header.getTimeSeconds() <= sorted[recentCount / 2]) {
+                    throw new VerificationException("Block's timestamp is too early");
+                }
+            }
+
+            params.checkDifficultyTransitions(storedPrev, header, runStore);
+
+            storedPrev = storedPrev.build(header);
+            runStore.put(storedPrev);
+            stored.add(storedPrev);
+
+            if (checkMedianTime) {
+                if (recentCount == MEDIAN_TIMESPAN_BLOCKS) {
+                    System.arraycopy(recentTimes, 1, recentTimes, 0, MEDIAN_TIMESPAN_BLOCKS - 1);
+                    recentCount--;
+                }
+                recentTimes[recentCount++] = header.getTimeSeconds();
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Validate a run of headers, then store them all. Stores which implement
+     * {@link BatchBlockStore} are given the whole run in one call.
+     *
+     * @return the headers in stored form, in order.
+     * @throws VerificationException if any header is invalid, in which case none
+     * are stored.
+     * @see #validate(StoredBlock, List, BlockStore)
+     */
+    public List<StoredBlock> validateAndStore(final StoredBlock prev, final List<? extends Block> headers,
+            final BlockStore store) throws VerificationException, BlockStoreException {
+        final List<StoredBlock> stored = validate(prev, headers, store);
+        if (store instanceof BatchBlockStore) {
+            ((BatchBlockStore) store).putAll(stored);
+        } else {
+            for (StoredBlock block : stored) {
+                store.put(block);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Block store seen by the checks while validating a run. Holds the run and any
+     * blocks read from the underlying store in memory, and never writes to the
+     * underlying store. Ancestors within the run are found in memory, and older
+     * ones through the underlying store if it indexes them.
+     */
+    private static final class RunStore implements AncestorBlockStore {
+        private final BlockStore store;
+        private final Map<Sha256Hash, StoredBlock> blocks = new HashMap<Sha256Hash, StoredBlock>();
+        /** The block the run builds on, then the run so far, in height order. */
+        private final List<StoredBlock> run = new ArrayList<StoredBlock>();
+
+        private RunStore(final BlockStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void put(final StoredBlock block) {
+            blocks.put(block.getHeader().getHash(), block);
+            if (run.isEmpty()
+                    || run.get(run.size() - 1).getHeader().getHash().equals(block.getHeader().getPrevBlockHash())) {
+                run.add(block);
+            }
+        }
+
+        @Override
+        @Nullable
+        public StoredBlock getAncestor(final StoredBlock block, final int height) throws BlockStoreException {
+            if (height < 0 || height > block.getHeight()) {
+                return null;
+            }
+            StoredBlock from = block;
+            if (!run.isEmpty()) {
+                final int runStart = run.get(0).getHeight();
+                final int index = block.getHeight() - runStart;
+                if (index >= 0 && index < run.size() && run.get(index).equals(block)) {
+                    if (height >= runStart) {
+                        return run.get(height - runStart);
+                    }
+                    // The rest of the way is in the underlying store
+                    from = run.get(0);
+                }
+            }
+            if (store instanceof AncestorBlockStore) {
+                return ((AncestorBlockStore) store).getAncestor(from, height);
+            }
+            return null;
+        }
+
+        @Override
+        @Nullable
+        public StoredBlock get(final Sha256Hash hash) throws BlockStoreException {
+            StoredBlock block = blocks.get(hash);
+            if (null == block) {
+                block = store.get(hash);
+                if (null != block) {
+                    blocks.put(hash, block);
+                }
+            }
+            return block;
+        }
+
+        @Override
+        public StoredBlock getChainHead() throws BlockStoreException {
+            return store.getChainHead();
+        }
+
+        @Override
+        public void setChainHead(final StoredBlock chainHead) {
+            throw new UnsupportedOperationException("Validation does not change the chain head");
+        }
+
+        @Override
+        public void close() {
+            // The underlying store belongs to the caller
+        }
+
+        @Override
+        public NetworkParameters getParams() {
+            return store.getParams();
+        }
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Block stores suited to the header chains of altcoin networks, including those
+ * with merge-mined (AuxPoW) blocks.
+ */
+package org.libdohj.store;
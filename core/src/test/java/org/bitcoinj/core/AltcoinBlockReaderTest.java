@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AltcoinBlockReaderTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    private static Transaction createTransaction(final int seed, final int scriptSize) {
+        final Transaction tx = new Transaction(params);
+        final byte[] opTrue = new byte[] { 0x51 };
+        tx.addInput(new TransactionInput(params, tx, opTrue,
+            new TransactionOutPoint(params, 0, Sha256Hash.of(new byte[] { (byte) seed }))));
+        tx.addOutput(new TransactionOutput(params, tx, Coin.COIN, new byte[scriptSize]));
+        return tx;
+    }
+
+    private static AltcoinBlock createBlock() {
+        final List<Transaction> transactions = new ArrayList<Transaction>();
+        transactions.add(createTransaction(1, 25));
+        // Larger than the initial buffer, so it has to grow
+        transactions.add(createTransaction(2, 100 * 1024));
+        transactions.add(createTransaction(3, 300));
+        return new AltcoinBlock(params, 1, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH,
+            1500000000L, Block.EASIEST_DIFFICULTY_TARGET, 0, transactions);
+    }
+
+    /**
+     * Channel which returns at most a few bytes per read, as a slow peer would.
+     */
+    private static ReadableByteChannel trickle(final byte[] data) {
+        final ByteBuffer in = ByteBuffer.wrap(data);
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!in.hasRemaining()) {
+                    return -1;
+                }
+                final int length = Math.min(Math.min(in.remaining(), dst.remaining()), 7);
+                for (int i = 0; i < length; i++) {
+                    dst.put(in.get());
+                }
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void shouldReadBlockIncrementally() throws Exception {
+        final AltcoinBlock block = createBlock();
+        final AltcoinBlockReader reader = new AltcoinBlockReader(params, trickle(block.bitcoinSerialize()));
+
+        final AltcoinBlock header = reader.readHeader();
+        assertEquals(block.getHash(), header.getHash());
+        assertEquals(3, reader.getTransactionCount());
+        for (Transaction expected : block.getTransactions()) {
+            assertEquals(expected.getTxId(), reader.nextTransaction().getTxId());
+        }
+        assertNull(reader.nextTransaction());
+    }
+
+    @Test
+    public void shouldReadBlockFromBuffer() throws Exception {
+        final AltcoinBlock block = createBlock();
+        final AltcoinBlockReader reader = new AltcoinBlockReader(params, ByteBuffer.wrap(block.bitcoinSerialize()));
+
+        assertEquals(block.getHash(), reader.readHeader().getHash());
+        for (Transaction expected : block.getTransactions()) {
+            assertEquals(expected.getTxId(), reader.nextTransaction().getTxId());
+        }
+        assertNull(reader.nextTransaction());
+    }
+
+    @Test(expected = EOFException.class)
+    public void shouldRejectTruncatedBlock() throws Exception {
+        final byte[] bytes = createBlock().bitcoinSerialize();
+        final AltcoinBlockReader reader = new AltcoinBlockReader(params,
+            ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+        reader.readHeader();
+        while (reader.nextTransaction() != null);
+    }
+
+    @Test
+    public void shouldMeasureAuxPoW() throws Exception {
+        final byte[] auxpow = ByteStreams.toByteArray(getClass().getResourceAsStream("auxpow_header.bin"));
+        assertEquals(auxpow.length, AltcoinBlockReader.auxPoWLength(auxpow, 0, auxpow.length));
+        for (int limit = 0; limit < auxpow.length; limit += 11) {
+            assertEquals(-1, AltcoinBlockReader.auxPoWLength(auxpow, 0, limit));
+        }
+        assertEquals(-1, AltcoinBlockReader.auxPoWLength(auxpow, 0, auxpow.length - 1));
+    }
+}
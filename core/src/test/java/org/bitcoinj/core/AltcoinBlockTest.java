@@ -22,14 +22,14 @@ import static org.junit.Assert.assertEquals;
 import org.junit.Before;
 import org.junit.Test;
 
-import org.libdohj.params.SyscoinMainNetParams;
+import org.libdohj.params.SyscoinUnitTestParams;
 
 /**
  *
  * @author jrn
  */
 public class AltcoinBlockTest {
-    private final NetworkParameters params = SyscoinMainNetParams.get();
+    private final NetworkParameters params = SyscoinUnitTestParams.get();
 
     @Before
     public void setUp() throws Exception {
@@ -66,4 +66,45 @@ public class AltcoinBlockTest {
         expected.set(4);
         assertEquals(block.getVersionFlags(), expected);
     }
+
+    /**
+     * Test the parts of the block version are decoded however the version is set:
+     * on construction, when parsed, when cloned as a header, and when replaced by
+     * copying another header over the block.
+     */
+    @Test
+    public void testDecodedVersion() {
+        AltcoinBlock block = new AltcoinBlock(params, 0x10001604L);
+        assertEquals(0x10001604L, block.getRawVersion());
+        assertDecodedVersion(block, 0x16, false);
+
+        block = new AltcoinBlock(params, 0x10000104L);
+        assertDecodedVersion(block, 0x01, true);
+
+        // Header with no transactions, of which only the version matters here
+        final byte[] header = new byte[Block.HEADER_SIZE + 1];
+        Utils.uint32ToByteArrayLE(block.getRawVersion(), header, 0);
+        final AltcoinBlock parsed = new AltcoinBlock(params, header);
+        assertEquals(block.getRawVersion(), parsed.getRawVersion());
+        assertDecodedVersion(parsed, 0x01, true);
+
+        final AltcoinBlock clone = (AltcoinBlock) parsed.cloneAsHeader();
+        assertEquals(parsed.getRawVersion(), clone.getRawVersion());
+        assertDecodedVersion(clone, 0x01, true);
+
+        // Replace the version of a block which has already decoded its own
+        final AltcoinBlock replaced = new AltcoinBlock(params, 0x10001604L);
+        assertDecodedVersion(replaced, 0x16, false);
+        parsed.copyBitcoinHeaderTo(replaced);
+        assertEquals(parsed.getRawVersion(), replaced.getRawVersion());
+        assertDecodedVersion(replaced, 0x01, true);
+    }
+
+    private static void assertDecodedVersion(final AltcoinBlock block, final int expectedFlagBits,
+            final boolean expectedAuxPoWVersion) {
+        assertEquals(4, block.getVersion());
+        assertEquals(0x1000, block.getChainID());
+        assertEquals(expectedFlagBits, block.getVersionFlagBits());
+        assertEquals(expectedAuxPoWVersion, block.isAuxPoWVersion());
+    }
 }
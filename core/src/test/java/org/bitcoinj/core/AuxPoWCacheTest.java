@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuxPoWCacheTest {
+    private static final Sha256Hash AUX_BLOCK_HASH = Sha256Hash.of(new byte[] { 1 });
+    private static final Sha256Hash PARENT_BLOCK_HASH = Sha256Hash.of(new byte[] { 2 });
+    private static final long TARGET = 0x1b06f8f0L;
+    private static final Sha256Hash DIGEST = Sha256Hash.of(new byte[] { 3 });
+
+    @Test
+    public void shouldRememberVerifiedProofs() {
+        final AuxPoWCache cache = new AuxPoWCache();
+        assertFalse(cache.isVerified(AUX_BLOCK_HASH, PARENT_BLOCK_HASH, TARGET, DIGEST));
+        cache.setVerified(AUX_BLOCK_HASH, PARENT_BLOCK_HASH, TARGET, DIGEST);
+        assertTrue(cache.isVerified(AUX_BLOCK_HASH, PARENT_BLOCK_HASH, TARGET, DIGEST));
+
+        // Any difference in the key is a different proof
+        assertFalse(cache.isVerified(PARENT_BLOCK_HASH, AUX_BLOCK_HASH, TARGET, DIGEST));
+        assertFalse(cache.isVerified(AUX_BLOCK_HASH, PARENT_BLOCK_HASH, TARGET + 1, DIGEST));
+
+        // As is the same key with a different AuxPoW, such as a corrupted branch
+        assertFalse(cache.isVerified(AUX_BLOCK_HASH, PARENT_BLOCK_HASH, TARGET, AUX_BLOCK_HASH));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+
+        cache.clear();
+        assertFalse(cache.isVerified(AUX_BLOCK_HASH, PARENT_BLOCK_HASH, TARGET, DIGEST));
+    }
+
+    @Test
+    public void shouldEvictOnceFull() {
+        final AuxPoWCache cache = new AuxPoWCache(1);
+        cache.setVerified(AUX_BLOCK_HASH, PARENT_BLOCK_HASH, TARGET, DIGEST);
+        cache.setVerified(PARENT_BLOCK_HASH, AUX_BLOCK_HASH, TARGET, DIGEST);
+        assertEquals(1, cache.size());
+        assertTrue(cache.isVerified(PARENT_BLOCK_HASH, AUX_BLOCK_HASH, TARGET, DIGEST));
+    }
+}
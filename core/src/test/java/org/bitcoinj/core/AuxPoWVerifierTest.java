@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.google.common.io.ByteStreams;
+import org.libdohj.core.UInt256;
+import org.libdohj.params.SyscoinUnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link AuxPoWVerifier} reaches the same result as
+ * {@link AuxPoW#checkProofOfWork(Sha256Hash, java.math.BigInteger, boolean)}.
+ */
+public class AuxPoWVerifierTest {
+    static final NetworkParameters params = SyscoinUnitTestParams.get();
+    private static final Sha256Hash HASH_AUX_BLOCK = Sha256Hash.wrap("0c836b86991631d34a8a68054e2f62db919b39d1ee43c27ab3344d6aa82fa609");
+    private static final long TARGET = 0x1b06f8f0L;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    private AuxPoW load(final String resource) throws Exception {
+        final byte[] auxpowAsBytes = ByteStreams.toByteArray(getClass().getResourceAsStream(resource));
+        return new AuxPoW(params, auxpowAsBytes, (ChildMessage) null, params.getDefaultSerializer());
+    }
+
+    /**
+     * Run both checks over the serialized AuxPoW, and return the outcome.
+     */
+    private static String assertSameResult(final NetworkParameters params, final AuxPoW modified,
+            final Sha256Hash hashAuxBlock, final long target) {
+        final byte[] bytes = modified.bitcoinSerialize();
+        final AuxPoW auxpow = new AuxPoW(params, bytes, (ChildMessage) null, params.getDefaultSerializer());
+        String expected;
+        try {
+            auxpow.checkProofOfWork(hashAuxBlock, Utils.decodeCompactBits(target), true);
+            expected = "valid";
+        } catch (VerificationException e) {
+            expected = e.getMessage();
+        }
+        String actual;
+        try {
+            new AuxPoWVerifier(params).checkProofOfWork(bytes, 0, bytes.length, hashAuxBlock, target, true);
+            actual = "valid";
+        } catch (VerificationException e) {
+            actual = e.getMessage();
+        }
+        assertEquals(expected, actual);
+        return actual;
+    }
+
+    private static void updateMerkleRootToMatchCoinbase(final AuxPoW auxpow) {
+        final Sha256Hash coinbaseHash = auxpow.getCoinbase().getTxId();
+        final Sha256Hash merkleRoot = Sha256Hash.wrapReversed(
+            Sha256Hash.hashTwice(coinbaseHash.getReversedBytes(), 0, 32, coinbaseHash.getReversedBytes(), 0, 32)
+        );
+        auxpow.getParentBlockHeader().setMerkleRoot(merkleRoot);
+        auxpow.setCoinbaseBranch(new MerkleBranch(params, auxpow,
+                Collections.singletonList(coinbaseHash), 0));
+    }
+
+    @Test
+    public void shouldMatchUnmodified() throws Exception {
+        assertSameResult(params, load("auxpow_header.bin"), HASH_AUX_BLOCK, TARGET);
+        // Every hash meets the easiest target, and none meets a negative one
+        assertSameResult(params, load("auxpow_header.bin"), HASH_AUX_BLOCK, 0x2100ffffL);
+        assertSameResult(params, load("auxpow_header.bin"), HASH_AUX_BLOCK, 0x1d80ffffL);
+    }
+
+    @Test
+    public void shouldAcceptValidAuxPoW() throws Exception {
+        final NetworkParameters namecoinLikeParams = new SyscoinUnitTestParams() {
+            @Override
+            public Sha256Hash getBlockDifficultyHash(Block block) {
+                return block.getHash();
+            }
+        };
+        final byte[] auxpowAsBytes = ByteStreams.toByteArray(getClass().getResourceAsStream("auxpow_header_no_tx_header.bin"));
+        final AuxPoW auxpow = new AuxPoW(namecoinLikeParams, auxpowAsBytes, (ChildMessage) null, namecoinLikeParams.getDefaultSerializer());
+        final Sha256Hash hashAuxBlock
+            = Sha256Hash.wrap("5fb89c3b18c27bc38d351d516177cbd3504c95ca0494cbbbbd52f2fb5f2ff1ec");
+        assertEquals("valid", assertSameResult(namecoinLikeParams, auxpow, hashAuxBlock, 0x1b00b269L));
+        assertTrue(auxpow.checkProofOfWork(hashAuxBlock, UInt256.fromCompactBits(0x1b00b269L), false));
+
+        // Targets outside 256 bits reach the parent's proof of work check
+        assertEquals("valid", assertSameResult(namecoinLikeParams, auxpow, hashAuxBlock, 0x2100ffffL));
+        assertEquals(0, assertSameResult(namecoinLikeParams, auxpow, hashAuxBlock, 0x1d80ffffL)
+            .indexOf("Hash is higher than target"));
+        assertFalse(auxpow.checkProofOfWork(hashAuxBlock, UInt256.fromCompactBits(0x1a00b269L), false));
+    }
+
+    @Test
+    public void shouldMatchNonGenerate() throws Exception {
+        final AuxPoW auxpow = load("auxpow_header.bin");
+        auxpow.getCoinbaseBranch().setIndex(0x01);
+        assertEquals("AuxPow is not a generate", assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+    }
+
+    @Test
+    public void shouldMatchLongMerkleBranch() throws Exception {
+        final AuxPoW auxpow = load("auxpow_header.bin");
+        auxpow.getChainMerkleBranch().setHashes(Collections.nCopies(31, Sha256Hash.ZERO_HASH));
+        assertEquals("Aux POW chain merkle branch too long", assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+    }
+
+    @Test
+    public void shouldMatchCoinbaseNotInMerkleBranch() throws Exception {
+        final AuxPoW auxpow = load("auxpow_header.bin");
+        auxpow.getCoinbase().clearOutputs();
+        assertEquals("Aux POW merkle root incorrect", assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+    }
+
+    @Test
+    public void shouldMatchScriptModifications() throws Exception {
+        // Missing merged mining header, and root too late in the script
+        AuxPoW auxpow = load("auxpow_header.bin");
+        TransactionInput in = auxpow.getCoinbase().getInput(0);
+        final byte[] paddedScriptBytes = new byte[in.getScriptBytes().length + (AuxPoW.MAX_INDEX_PC_BACKWARDS_COMPATIBILITY + 4)];
+        System.arraycopy(in.getScriptBytes(), 8, paddedScriptBytes, (AuxPoW.MAX_INDEX_PC_BACKWARDS_COMPATIBILITY + 4), in.getScriptBytes().length - 8);
+        in.setScriptBytes(paddedScriptBytes);
+        updateMerkleRootToMatchCoinbase(auxpow);
+        assertEquals("Aux POW chain merkle root must start in the first 20 bytes of the parent coinbase",
+            assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+
+        // Duplicated merged mining header
+        auxpow = load("auxpow_header.bin");
+        in = auxpow.getCoinbase().getInput(0);
+        byte[] newBytes = Arrays.copyOf(in.getScriptBytes(), in.getScriptBytes().length + 4);
+        System.arraycopy(AuxPoW.MERGED_MINING_HEADER, 0, newBytes, newBytes.length - 4, 4);
+        in.setScriptBytes(newBytes);
+        updateMerkleRootToMatchCoinbase(auxpow);
+        assertEquals("Multiple merged mining headers in coinbase", assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+
+        // Broken chain merkle root
+        auxpow = load("auxpow_header.bin");
+        auxpow.getCoinbase().getInput(0).getScriptBytes()[8] = 0;
+        updateMerkleRootToMatchCoinbase(auxpow);
+        assertEquals("Aux POW missing chain merkle root in parent coinbase", assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+
+        // Gap between the header and the root
+        auxpow = load("auxpow_header.bin");
+        in = auxpow.getCoinbase().getInput(0);
+        newBytes = Arrays.copyOf(in.getScriptBytes(), in.getScriptBytes().length + 1);
+        System.arraycopy(newBytes, 8, newBytes, 9, newBytes.length - 9);
+        newBytes[8] = (byte) 0xff;
+        in.setScriptBytes(newBytes);
+        updateMerkleRootToMatchCoinbase(auxpow);
+        assertEquals("Merged mining header is not just before chain merkle root", assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+
+        // Truncated script
+        auxpow = load("auxpow_header.bin");
+        in = auxpow.getCoinbase().getInput(0);
+        in.setScriptBytes(Arrays.copyOf(in.getScriptBytes(), in.getScriptBytes().length - 12));
+        updateMerkleRootToMatchCoinbase(auxpow);
+        assertEquals("Aux POW missing chain merkle tree size and nonce in parent coinbase", assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+
+        // Wrong branch size
+        auxpow = load("auxpow_header.bin");
+        auxpow.getCoinbase().getInput(0).getScriptBytes()[40] = 3;
+        updateMerkleRootToMatchCoinbase(auxpow);
+        assertEquals("Aux POW merkle branch size does not match parent coinbase", assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET));
+
+        // Wrong nonce
+        auxpow = load("auxpow_header.bin");
+        auxpow.getCoinbase().getInput(0).getScriptBytes()[44] = (byte) 0xff;
+        updateMerkleRootToMatchCoinbase(auxpow);
+        assertSameResult(params, auxpow, HASH_AUX_BLOCK, TARGET);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BatchMerkleRootCalculatorTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    @Test
+    public void shouldMatchSingleBranchRoots() {
+        final int count = 300;
+        final Sha256Hash[] leaves = createLeaves(count);
+        final MerkleBranch[] branches = createBranches(count);
+
+        final BatchMerkleRootCalculator calculator = new BatchMerkleRootCalculator(4);
+        assertEquals(4, calculator.getParallelism());
+        final byte[] roots = calculator.calculateMerkleRoots(leaves, branches);
+        final byte[] sequential = MerkleHasher.get().calculateMerkleRoots(leaves, branches);
+        assertEquals(count * 32, roots.length);
+        for (int i = 0; i < count; i++) {
+            final Sha256Hash expected = branches[i].calculateMerkleRoot(leaves[i]);
+            assertEquals(expected, BatchMerkleRootCalculator.getRoot(roots, i));
+            assertEquals(expected, BatchMerkleRootCalculator.getRoot(sequential, i));
+        }
+        calculator.shutdown();
+    }
+
+    @Test
+    public void shouldCalculateOnCallingThreadOnceShutDown() {
+        final Sha256Hash[] leaves = createLeaves(300);
+        final MerkleBranch[] branches = createBranches(300);
+        final BatchMerkleRootCalculator calculator = new BatchMerkleRootCalculator(2);
+        calculator.shutdown();
+        assertArrayEquals(MerkleHasher.get().calculateMerkleRoots(leaves, branches),
+            calculator.calculateMerkleRoots(leaves, branches));
+    }
+
+    @Test
+    public void shouldLeaveSharedPoolRunning() {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final Sha256Hash[] leaves = createLeaves(300);
+        final MerkleBranch[] branches = createBranches(300);
+        final BatchMerkleRootCalculator calculator = new BatchMerkleRootCalculator(pool);
+        assertArrayEquals(MerkleHasher.get().calculateMerkleRoots(leaves, branches),
+            calculator.calculateMerkleRoots(leaves, branches));
+        calculator.shutdown();
+        assertFalse(pool.isShutdown());
+        pool.shutdown();
+    }
+
+    private static Sha256Hash[] createLeaves(final int count) {
+        final Sha256Hash[] leaves = new Sha256Hash[count];
+        for (int i = 0; i < count; i++) {
+            leaves[i] = Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8) });
+        }
+        return leaves;
+    }
+
+    /**
+     * Branches of differing lengths, some longer than the mask.
+     */
+    private static MerkleBranch[] createBranches(final int count) {
+        final Random random = new Random(42);
+        final MerkleBranch[] branches = new MerkleBranch[count];
+        for (int i = 0; i < count; i++) {
+            final List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+            final int size = i % 7 == 0 ? 70 : random.nextInt(12);
+            for (int j = 0; j < size; j++) {
+                hashes.add(Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8), (byte) j }));
+            }
+            branches[i] = new MerkleBranch(params, null, hashes, random.nextLong() & Long.MAX_VALUE);
+        }
+        return branches;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HeaderBatchVerifierTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    /**
+     * Create a header which meets the easiest target, or one at a far harder
+     * target which it does not meet.
+     */
+    private static AltcoinBlock createHeader(final long time, final boolean valid) {
+        final AltcoinBlock header = new AltcoinBlock(params, 1, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH,
+            time, valid ? Block.EASIEST_DIFFICULTY_TARGET : 0x1d00ffffL, 0, new ArrayList<Transaction>());
+        if (valid) {
+            header.solve();
+        }
+        // Parse a fresh copy, so no earlier check is remembered
+        return new AltcoinBlock(params, header.cloneAsHeader().bitcoinSerialize());
+    }
+
+    @Test
+    public void shouldVerifyBatchInParallel() {
+        final List<AltcoinBlock> headers = new ArrayList<AltcoinBlock>();
+        for (int i = 0; i < 200; i++) {
+            headers.add(createHeader(1500000000L + i, i != 123));
+        }
+        for (AltcoinBlock header : headers) {
+            assertFalse(header.isProofOfWorkVerified());
+        }
+
+        final HeaderBatchVerifier verifier = new HeaderBatchVerifier(4);
+        assertEquals(4, verifier.getParallelism());
+        verifier.verify(headers);
+
+        for (int i = 0; i < headers.size(); i++) {
+            assertEquals(i != 123, headers.get(i).isProofOfWorkVerified());
+        }
+    }
+
+    @Test
+    public void shouldVerifyOnCallingThreadOnceShutDown() {
+        final List<AltcoinBlock> headers = new ArrayList<AltcoinBlock>();
+        for (int i = 0; i < 50; i++) {
+            headers.add(createHeader(1500000000L + i, true));
+        }
+        final HeaderBatchVerifier verifier = new HeaderBatchVerifier(2);
+        verifier.shutdown();
+        verifier.verify(headers);
+        for (AltcoinBlock header : headers) {
+            assertTrue(header.isProofOfWorkVerified());
+        }
+    }
+
+    @Test
+    public void shouldLeaveSharedPoolRunning() {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final List<AltcoinBlock> headers = new ArrayList<AltcoinBlock>();
+        for (int i = 0; i < 50; i++) {
+            headers.add(createHeader(1500000000L + i, true));
+        }
+        final HeaderBatchVerifier verifier = new HeaderBatchVerifier(pool);
+        assertEquals(2, verifier.getParallelism());
+        verifier.verify(headers);
+        verifier.shutdown();
+        assertFalse(pool.isShutdown());
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldForgetResultWhenHeaderChanges() {
+        final AltcoinBlock header = createHeader(1500000000L, true);
+        assertTrue(header.checkProofOfWork(false));
+        assertTrue(header.isProofOfWorkVerified());
+
+        header.setNonce(header.getNonce() + 1);
+        assertFalse(header.isProofOfWorkVerified());
+    }
+}
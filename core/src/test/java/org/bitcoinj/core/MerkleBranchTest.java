@@ -7,6 +7,8 @@ import com.google.common.io.ByteStreams;
 import org.bitcoinj.params.TestNet3Params;
 import org.junit.Test;
 
+import java.util.ArrayList;
+
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -59,4 +61,23 @@ public class MerkleBranchTest {
 
         assertEquals(expected, branch.calculateMerkleRoot(txId));
     }
+
+    /**
+     * Build a branch from a list of hashes, and check it matches the same branch
+     * parsed from its serialized form.
+     */
+    @Test
+    public void buildMerkleBranchFromHashes() throws Exception {
+        byte[] branchAsBytes = ByteStreams.toByteArray(getClass().getResourceAsStream("auxpow_merkle_branch.bin"));
+        MerkleBranch parsed = new MerkleBranch(params, (ChildMessage) null, branchAsBytes, 0);
+        MerkleBranch built = new MerkleBranch(params, null, new ArrayList<Sha256Hash>(parsed.getHashes()),
+            parsed.getIndex());
+
+        assertEquals(parsed, built);
+        assertEquals(parsed.hashCode(), built.hashCode());
+        assertArrayEquals(branchAsBytes, built.bitcoinSerialize());
+        for (int i = 0; i < built.size(); i++) {
+            assertEquals(parsed.getHashes().get(i), built.getHash(i));
+        }
+    }
 }
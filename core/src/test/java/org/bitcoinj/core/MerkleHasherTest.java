@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link MerkleHasher} against hashing with freshly reversed arrays.
+ */
+public class MerkleHasherTest {
+    private static Sha256Hash combine(final Sha256Hash left, final Sha256Hash right) {
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(left.getReversedBytes(), right.getReversedBytes()));
+    }
+
+    @Test
+    public void shouldCombineAndFoldBranches() {
+        final Random random = new Random(42);
+        final MerkleHasher hasher = MerkleHasher.get();
+        for (int round = 0; round < 100; round++) {
+            final Sha256Hash leaf = Sha256Hash.of(new byte[] { (byte) round });
+            final List<Sha256Hash> branch = new ArrayList<Sha256Hash>();
+            final long mask = random.nextInt() & 0x7fffffffL;
+            Sha256Hash expected = leaf;
+            for (int i = 0; i < round % 20; i++) {
+                final Sha256Hash hash = Sha256Hash.of(new byte[] { (byte) round, (byte) i });
+                branch.add(hash);
+                expected = ((mask >> i) & 1) == 0 ? combine(expected, hash) : combine(hash, expected);
+            }
+            assertEquals(combine(leaf, branch.isEmpty() ? leaf : branch.get(0)),
+                hasher.combine(leaf.getBytes(), (branch.isEmpty() ? leaf : branch.get(0)).getBytes()));
+            assertEquals(expected, hasher.calculateMerkleRoot(leaf, branch, mask));
+            assertEquals(expected, new MerkleBranch(UnitTestParams.get(), null, branch, mask).calculateMerkleRoot(leaf));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ParallelSuperblockTreeBuilderTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    @Test
+    public void shouldMatchSequentialBuild() {
+        final ParallelSuperblockTreeBuilder builder = new ParallelSuperblockTreeBuilder(4);
+        assertEquals(4, builder.getParallelism());
+        final Random random = new Random(42);
+        // Small enough to build on the calling thread, then uneven trees big enough to split
+        for (int count : new int[] { 5, 1024, 3001, 5000 }) {
+            final List<Sha256Hash> leaves = createLeaves(count);
+            for (int matched : new int[] { 0, 1, 20 }) {
+                final byte[] includeBits = new byte[(count + 7) / 8];
+                for (int i = 0; i < matched; i++) {
+                    Utils.setBitLE(includeBits, random.nextInt(count));
+                }
+                final SuperblockPartialMerkleTree expected
+                    = SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, leaves);
+                assertArrayEquals(expected.bitcoinSerialize(),
+                    builder.buildFromLeaves(params, includeBits, leaves).bitcoinSerialize());
+            }
+        }
+        builder.shutdown();
+    }
+
+    @Test
+    public void shouldBuildOnCallingThreadOnceShutDown() {
+        final List<Sha256Hash> leaves = createLeaves(5000);
+        final byte[] includeBits = new byte[(leaves.size() + 7) / 8];
+        Utils.setBitLE(includeBits, 4321);
+        final ParallelSuperblockTreeBuilder builder = new ParallelSuperblockTreeBuilder(2);
+        builder.shutdown();
+        assertArrayEquals(SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, leaves).bitcoinSerialize(),
+            builder.buildFromLeaves(params, includeBits, leaves).bitcoinSerialize());
+    }
+
+    @Test
+    public void shouldLeaveSharedPoolRunning() {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final List<Sha256Hash> leaves = createLeaves(5000);
+        final byte[] includeBits = new byte[(leaves.size() + 7) / 8];
+        final ParallelSuperblockTreeBuilder builder = new ParallelSuperblockTreeBuilder(pool);
+        assertArrayEquals(SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, leaves).bitcoinSerialize(),
+            builder.buildFromLeaves(params, includeBits, leaves).bitcoinSerialize());
+        builder.shutdown();
+        assertFalse(pool.isShutdown());
+        pool.shutdown();
+    }
+
+    private static List<Sha256Hash> createLeaves(final int count) {
+        final List<Sha256Hash> leaves = new ArrayList<Sha256Hash>();
+        for (int i = 0; i < count; i++) {
+            leaves.add(Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8) }));
+        }
+        return leaves;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SuperblockMerkleAccumulatorTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    @Test
+    public void shouldMatchTreeBuiltFromAllLeaves() {
+        final SuperblockMerkleAccumulator accumulator = new SuperblockMerkleAccumulator();
+        final List<Sha256Hash> leaves = new ArrayList<Sha256Hash>();
+        for (int count = 1; count <= 40; count++) {
+            final Sha256Hash leaf = Sha256Hash.of(new byte[] { (byte) count });
+            accumulator.add(leaf);
+            leaves.add(leaf);
+            assertEquals(count, accumulator.getLeafCount());
+
+            final List<Sha256Hash> matched = new ArrayList<Sha256Hash>();
+            for (int i = 0; i < count; i++) {
+                final byte[] includeBits = new byte[(count + 7) / 8];
+                Utils.setBitLE(includeBits, i);
+                final SuperblockPartialMerkleTree expected
+                    = SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, leaves);
+                final SuperblockPartialMerkleTree proof = accumulator.buildProof(params, i);
+                assertArrayEquals(expected.bitcoinSerialize(), proof.bitcoinSerialize());
+
+                assertEquals(accumulator.getRoot(), proof.getTxnHashAndMerkleRoot(matched));
+                assertEquals(Collections.singletonList(leaves.get(i)), matched);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldHaveNoRootWhenEmpty() {
+        new SuperblockMerkleAccumulator().getRoot();
+    }
+}
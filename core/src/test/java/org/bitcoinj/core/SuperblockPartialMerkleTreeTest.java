@@ -200,5 +200,138 @@ public class SuperblockPartialMerkleTreeTest {
 
     }
 
+    @Test
+    public void buildFromLeavesMatchesDepthFirstBuild() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        Random random = new Random(42);
+        for (int count = 1; count <= 70; count++) {
+            List<Sha256Hash> hashList = new ArrayList<Sha256Hash>();
+            for (int i = 0; i < count; i++) {
+                hashList.add(Sha256Hash.of(new byte[]{(byte) i, (byte) count}));
+            }
+            for (int round = 0; round < 10; round++) {
+                byte[] includeBits = new byte[(count + 7) / 8];
+                for (int i = 0; i < count; i++) {
+                    if (random.nextInt(8) < round)
+                        Utils.setBitLE(includeBits, i);
+                }
+                SuperblockPartialMerkleTree expected = traverseAndBuild(params, includeBits, hashList);
+                SuperblockPartialMerkleTree pmt = SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, hashList);
+                assertArrayEquals(expected.bitcoinSerialize(), pmt.bitcoinSerialize());
+            }
+        }
+    }
+
+    @Test
+    public void transactionProofsMatchSingleLookups() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        Random random = new Random(42);
+        for (int count = 1; count <= 40; count++) {
+            List<Sha256Hash> hashList = new ArrayList<Sha256Hash>();
+            for (int i = 0; i < count; i++) {
+                hashList.add(Sha256Hash.of(new byte[]{(byte) i, (byte) count}));
+            }
+            byte[] includeBits = new byte[(count + 7) / 8];
+            List<Sha256Hash> matched = new ArrayList<Sha256Hash>();
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || random.nextInt(3) == 0) {
+                    Utils.setBitLE(includeBits, i);
+                    matched.add(hashList.get(i));
+                }
+            }
+            Collections.reverse(matched);
+            SuperblockPartialMerkleTree pmt = SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, hashList);
+            Map<Sha256Hash, SuperblockPartialMerkleTree.TransactionProof> proofs = pmt.getTransactionProofs(matched);
+            assertEquals(matched, new ArrayList<Sha256Hash>(proofs.keySet()));
+            for (Sha256Hash txHash : matched) {
+                assertEquals(pmt.getTransactionIndex(txHash), proofs.get(txHash).getIndex());
+                assertEquals(pmt.getTransactionPath(txHash), proofs.get(txHash).getPath());
+            }
+        }
+    }
 
+    @Test
+    public void repeatedLookupsAreUnaffectedByChangesToReturnedPath() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        List<Sha256Hash> hashList = new ArrayList<Sha256Hash>();
+        for (int i = 0; i < 9; i++) {
+            hashList.add(allHashes.get(""+i));
+        }
+        SuperblockPartialMerkleTree pmt = SuperblockPartialMerkleTree.buildFromLeaves(params, Utils.HEX.decode("ff01"), hashList);
+        List<Sha256Hash> hash8Result = Arrays.asList(allHashes.get("8"), allHashes.get("88"), allHashes.get("8888"), allHashes.get("01234567"));
+        pmt.getTransactionPath(allHashes.get("8")).clear();
+        assertEquals(hash8Result, pmt.getTransactionPath(allHashes.get("8")));
+        assertEquals(8, pmt.getTransactionIndex(allHashes.get("8")));
+
+        // A parsed copy of the tree answers the same
+        SuperblockPartialMerkleTree parsed = new SuperblockPartialMerkleTree(params, pmt.bitcoinSerialize(), 0);
+        assertEquals(hash8Result, parsed.getTransactionPath(allHashes.get("8")));
+        assertEquals(8, parsed.getTransactionIndex(allHashes.get("8")));
+    }
+
+    @Test
+    public void transactionProofsRejectUnmatchedTx() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        List<Sha256Hash> hashList = new ArrayList<Sha256Hash>();
+        for (int i = 0; i < 8; i++) {
+            hashList.add(allHashes.get(""+i));
+        }
+        SuperblockPartialMerkleTree pmt = SuperblockPartialMerkleTree.buildFromLeaves(params, Utils.HEX.decode("0f"), hashList);
+        try {
+            pmt.getTransactionProofs(Arrays.asList(allHashes.get("0"), allHashes.get("4")));
+            fail("Expected VerificationException");
+        } catch (VerificationException e) {
+        }
+        try {
+            pmt.getTransactionProofs(Arrays.asList(allHashes.get("0"), allHashes.get("8")));
+            fail("Expected VerificationException");
+        } catch (VerificationException e) {
+        }
+    }
+
+    /**
+     * Builds a PMT by recursing depth-first and hashing each subtree as it is reached, as
+     * CPartialMerkleTree::TraverseAndBuild in Bitcoin Core does.
+     */
+    private static SuperblockPartialMerkleTree traverseAndBuild(NetworkParameters params, byte[] includeBits,
+                                                                List<Sha256Hash> leaves) {
+        int height = 0;
+        while (width(leaves.size(), height) > 1)
+            height++;
+        List<Boolean> bitList = new ArrayList<Boolean>();
+        List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+        traverseAndBuild(height, 0, leaves, includeBits, bitList, hashes);
+        byte[] bits = new byte[(bitList.size() + 7) / 8];
+        for (int i = 0; i < bitList.size(); i++)
+            if (bitList.get(i))
+                Utils.setBitLE(bits, i);
+        return new SuperblockPartialMerkleTree(params, bits, hashes, leaves.size());
+    }
+
+    private static void traverseAndBuild(int height, int pos, List<Sha256Hash> leaves, byte[] includeBits,
+                                         List<Boolean> bitList, List<Sha256Hash> hashes) {
+        boolean parentOfMatch = false;
+        for (int p = pos << height; p < (pos + 1) << height && p < leaves.size(); p++)
+            parentOfMatch |= Utils.checkBitLE(includeBits, p);
+        bitList.add(parentOfMatch);
+        if (height == 0 || !parentOfMatch) {
+            hashes.add(calcHash(height, pos, leaves));
+        } else {
+            traverseAndBuild(height - 1, pos * 2, leaves, includeBits, bitList, hashes);
+            if (pos * 2 + 1 < width(leaves.size(), height - 1))
+                traverseAndBuild(height - 1, pos * 2 + 1, leaves, includeBits, bitList, hashes);
+        }
+    }
+
+    private static Sha256Hash calcHash(int height, int pos, List<Sha256Hash> leaves) {
+        if (height == 0)
+            return leaves.get(pos);
+        Sha256Hash left = calcHash(height - 1, pos * 2, leaves);
+        Sha256Hash right = pos * 2 + 1 < width(leaves.size(), height - 1) ? calcHash(height - 1, pos * 2 + 1, leaves) : left;
+        return SuperblockPartialMerkleTree.combineLeftRight(left.getBytes(), right.getBytes());
+    }
+
+    private static int width(int count, int height) {
+        return (count + (1 << height) - 1) >> height;
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.params.UnitTestParams;
+
+/**
+ * Times building a superblock merkle tree on one thread against
+ * {@link ParallelSuperblockTreeBuilder}. Not run as part of the tests; run
+ * {@code main} directly, optionally passing the number of leaves and threads.
+ */
+public class SuperblockTreeBenchmark {
+    private static final int ROUNDS = 20;
+
+    public static void main(final String[] args) {
+        final NetworkParameters params = UnitTestParams.get();
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 18;
+        final int parallelism = args.length > 1 ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors();
+
+        final List<Sha256Hash> leaves = new ArrayList<Sha256Hash>(count);
+        for (int i = 0; i < count; i++) {
+            leaves.add(Sha256Hash.of(Utils.HEX.decode(String.format("%08x", i))));
+        }
+        // A single matched leaf, so almost every node is hashed
+        final byte[] includeBits = new byte[(count + 7) / 8];
+        Utils.setBitLE(includeBits, count / 2);
+
+        final ParallelSuperblockTreeBuilder builder = new ParallelSuperblockTreeBuilder(parallelism);
+        // Warm up both paths before timing
+        for (int i = 0; i < ROUNDS; i++) {
+            SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, leaves);
+            builder.buildFromLeaves(params, includeBits, leaves);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            SuperblockPartialMerkleTree.buildFromLeaves(params, includeBits, leaves);
+        }
+        final long sequential = (System.nanoTime() - start) / ROUNDS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            builder.buildFromLeaves(params, includeBits, leaves);
+        }
+        final long parallel = (System.nanoTime() - start) / ROUNDS;
+        builder.shutdown();
+
+        System.out.printf("%d leaves: sequential %.2f ms, parallel (%d threads) %.2f ms, speedup %.2fx%n",
+            count, sequential / 1e6, parallelism, parallel / 1e6, (double) sequential / parallel);
+    }
+}
@@ -8,12 +8,17 @@ package org.bitcoinj.core;
 import org.libdohj.core.AltcoinSerializer;
 import java.io.IOException;
 import java.math.BigInteger;
-import org.libdohj.params.SyscoinMainNetParams;
+import java.util.Arrays;
+import com.google.common.io.ByteStreams;
+import org.libdohj.params.AbstractSyscoinParams;
+import org.libdohj.params.SyscoinUnitTestParams;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -22,7 +27,7 @@ import org.junit.Test;
  * @author jrn
  */
 public class SyscoinBlockTest {
-    private final NetworkParameters params = SyscoinMainNetParams.get();
+    private final NetworkParameters params = SyscoinUnitTestParams.get();
 
     @Before
     public void setUp() throws Exception {
@@ -47,8 +52,98 @@ public class SyscoinBlockTest {
         assertEquals(baseVersion, AltcoinBlock.getBaseVersion(auxpowVersion));
     }
 
+    /**
+     * Build a block payload from a header with the AuxPoW flag set, the AuxPoW
+     * from the test resources, and no transactions.
+     */
+    private byte[] createAuxPoWBlockPayload() throws IOException {
+        final byte[] auxpow = ByteStreams.toByteArray(getClass().getResourceAsStream("auxpow_header.bin"));
+        final byte[] payload = new byte[Block.HEADER_SIZE + auxpow.length + 1];
+        final long version = (AbstractSyscoinParams.AUXPOW_CHAIN_ID << 16) | 0x100 | 2;
+        Utils.uint32ToByteArrayLE(version, payload, 0);
+        Utils.uint32ToByteArrayLE(0x1b06f8f0L, payload, 72);
+        System.arraycopy(auxpow, 0, payload, Block.HEADER_SIZE, auxpow.length);
+        return payload;
+    }
+
+    @Test
+    public void shouldParseAuxPoWLazily() throws Exception {
+        final byte[] payload = createAuxPoWBlockPayload();
+        final AltcoinBlock eager = new AltcoinBlock(params, payload, 0,
+            new AltcoinSerializer(params, false, false), payload.length);
+        final AltcoinBlock lazy = new AltcoinBlock(params, payload, 0,
+            new AltcoinSerializer(params, false, true), payload.length);
+
+        assertTrue(lazy.hasAuxPoW());
+        assertEquals(eager.getHash(), lazy.getHash());
+        // Reserializing must not need the AuxPoW parsed
+        assertArrayEquals(payload, lazy.bitcoinSerialize());
+        assertArrayEquals(eager.cloneAsHeader().bitcoinSerialize(), lazy.cloneAsHeader().bitcoinSerialize());
 
+        assertNotNull(lazy.getAuxPoW());
+        assertEquals(eager.getAuxPoW().getCoinbase().getTxId(), lazy.getAuxPoW().getCoinbase().getTxId());
+        assertArrayEquals(eager.getAuxPoW().bitcoinSerialize(), lazy.getAuxPoW().bitcoinSerialize());
+        assertArrayEquals(payload, lazy.bitcoinSerialize());
+    }
+
+    @Test
+    public void shouldParseHeadersWithAuxPoW() throws Exception {
+        final byte[] auxpowHeader = createAuxPoWBlockPayload();
+        final byte[] plainHeader = new byte[Block.HEADER_SIZE + 1];
+        Utils.uint32ToByteArrayLE(2, plainHeader, 0);
+        Utils.uint32ToByteArrayLE(0x1b06f8f0L, plainHeader, 72);
 
+        final byte[] payload = new byte[1 + auxpowHeader.length * 2 + plainHeader.length];
+        payload[0] = 3;
+        System.arraycopy(auxpowHeader, 0, payload, 1, auxpowHeader.length);
+        System.arraycopy(plainHeader, 0, payload, 1 + auxpowHeader.length, plainHeader.length);
+        System.arraycopy(auxpowHeader, 0, payload, 1 + auxpowHeader.length + plainHeader.length, auxpowHeader.length);
 
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, false, true);
+        final AltcoinHeadersMessage message = new AltcoinHeadersMessage(params, payload, 0, serializer, payload.length);
+        assertEquals(3, message.getBlockHeaders().size());
+        assertTrue(((AltcoinBlock) message.getBlockHeaders().get(0)).hasAuxPoW());
+        assertNull(((AltcoinBlock) message.getBlockHeaders().get(1)).getAuxPoW());
+        assertTrue(((AltcoinBlock) message.getBlockHeaders().get(2)).hasAuxPoW());
+        assertArrayEquals(payload, message.bitcoinSerialize());
 
+        // Drop the trailing transaction count
+        try {
+            new AltcoinHeadersMessage(params, payload, 0, serializer, payload.length - 1);
+            fail("Expected ProtocolException");
+        } catch (ProtocolException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void shouldNotTrustCachedAuxPoWWithDifferentBranches() throws Exception {
+        final byte[] payload = createAuxPoWBlockPayload();
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, false, true);
+        final AltcoinBlock block = new AltcoinBlock(params, payload, 0, serializer, payload.length);
+        final int auxpowLength = payload.length - Block.HEADER_SIZE - 1;
+        // The parent header ends the AuxPoW
+        final Sha256Hash parentBlockHash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(payload, auxpowLength,
+            Block.HEADER_SIZE));
+        final Sha256Hash auxpowDigest = Sha256Hash.of(Arrays.copyOfRange(payload, Block.HEADER_SIZE,
+            Block.HEADER_SIZE + auxpowLength));
+
+        final AuxPoWCache original = AltcoinBlock.getAuxPoWCache();
+        final AuxPoWCache cache = new AuxPoWCache();
+        AltcoinBlock.setAuxPoWCache(cache);
+        try {
+            // The AuxPoW does not commit to this block, so is only accepted from the cache
+            cache.setVerified(block.getHash(), parentBlockHash, block.getDifficultyTarget(), auxpowDigest);
+            assertTrue(block.checkProofOfWork(false));
+
+            // Same header and parent header, but a corrupted coinbase
+            final byte[] corrupted = payload.clone();
+            corrupted[Block.HEADER_SIZE + 10] ^= 0x01;
+            final AltcoinBlock copy = new AltcoinBlock(params, corrupted, 0, serializer, corrupted.length);
+            assertEquals(block.getHash(), copy.getHash());
+            assertFalse(copy.checkProofOfWork(false));
+        } finally {
+            AltcoinBlock.setAuxPoWCache(original);
+        }
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 J. Ross Nicoll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.libdohj.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.BitcoinSerializer;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.MasternodePing;
+import org.bitcoinj.core.Message;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Ping;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Message framing and payload parsing.
+ */
+public class AltcoinSerializerTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    private static Transaction createTransaction() {
+        final Transaction tx = new Transaction(params);
+        final byte[] opTrue = new byte[] { 0x51 };
+        tx.addInput(new TransactionInput(params, tx, opTrue,
+            new TransactionOutPoint(params, 0, Sha256Hash.of(new byte[] { 1 }))));
+        tx.addOutput(new TransactionOutput(params, tx, Coin.COIN, opTrue));
+        return tx;
+    }
+
+    /**
+     * Frame a message, surrounded by unrelated bytes, and return a heap buffer
+     * positioned at the start of the message.
+     */
+    private static ByteBuffer frame(final AltcoinSerializer serializer, final Message message) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 7, 7, 7 });
+        serializer.serialize(message, out);
+        out.write(new byte[] { 9, 9, 9, 9 });
+        final ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        buffer.position(3);
+        return buffer;
+    }
+
+    @Test
+    public void shouldParseTransactionInPlace() throws Exception {
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, false);
+        final Transaction tx = createTransaction();
+        final ByteBuffer buffer = frame(serializer, tx);
+        final int end = buffer.limit() - 4;
+
+        final Message message = serializer.deserialize(buffer);
+        assertTrue(message instanceof Transaction);
+        assertEquals(tx.getTxId(), ((Transaction) message).getTxId());
+        assertEquals(end, buffer.position());
+    }
+
+    @Test
+    public void shouldParseFromDirectBuffer() throws Exception {
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, false);
+        final ByteBuffer heap = frame(serializer, new Ping(42));
+        final ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining());
+        direct.put(heap);
+        direct.flip();
+
+        final Message message = serializer.deserialize(direct);
+        assertTrue(message instanceof Ping);
+        assertEquals(42, ((Ping) message).getNonce());
+        assertEquals(direct.limit() - 4, direct.position());
+    }
+
+    @Test
+    public void shouldRetainExactPayload() throws Exception {
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, true);
+        final Transaction tx = createTransaction();
+        final ByteBuffer buffer = frame(serializer, tx);
+
+        final Transaction parsed = (Transaction) serializer.deserialize(buffer);
+        // Scribble over the network buffer, the retained message must be unaffected
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        assertArrayEquals(tx.bitcoinSerialize(), parsed.bitcoinSerialize());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void shouldRejectBadChecksum() throws Exception {
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, false);
+        final ByteBuffer buffer = frame(serializer, createTransaction());
+        final BitcoinSerializer.BitcoinPacketHeader header = serializer.deserializeHeader(buffer);
+        buffer.put(buffer.position(), (byte) (buffer.get(buffer.position()) ^ 1));
+        serializer.deserializePayload(header, buffer);
+    }
+
+    @Test
+    public void shouldDispatchRegisteredMessage() throws Exception {
+        final MessageRegistry registry = new MessageRegistry();
+        AltcoinSerializer.registerStandardMessages(registry);
+        registry.register("custom", new MessageFactory() {
+            @Override
+            protected Message create(AltcoinSerializer serializer, byte[] payload) throws ProtocolException {
+                return new Ping(serializer.getParameters(), payload);
+            }
+        });
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, false, registry);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize("custom", new Ping(7).bitcoinSerialize(), out);
+
+        final Message message = serializer.deserialize(ByteBuffer.wrap(out.toByteArray()));
+        assertTrue(message instanceof Ping);
+        assertEquals(7, ((Ping) message).getNonce());
+        assertNull(AltcoinSerializer.getDefaultMessageRegistry().lookup("custom"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDuplicateCommand() {
+        final MessageRegistry registry = new MessageRegistry();
+        AltcoinSerializer.registerStandardMessages(registry);
+        registry.register("ping", registry.lookup("pong"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDuplicateType() {
+        final MessageRegistry registry = new MessageRegistry();
+        AltcoinSerializer.registerStandardMessages(registry);
+        registry.register("ping2", Ping.class);
+    }
+
+    @Test
+    public void shouldResolveCommandOfSubclass() throws Exception {
+        final MessageRegistry registry = AltcoinSerializer.getDefaultMessageRegistry();
+        assertEquals("block", registry.getCommand(AltcoinBlock.class));
+        assertEquals("mnp", registry.getCommand(MasternodePing.class));
+        assertNull(registry.getCommand(Message.class));
+    }
+
+    @Test
+    public void shouldSerializeBatchToChannel() throws Exception {
+        final AltcoinSerializer serializer = new AltcoinSerializer(params, false);
+        final List<Message> messages = new ArrayList<Message>();
+        // Enough small messages for headers to cross segment boundaries
+        for (int i = 0; i < 3000; i++) {
+            messages.add(new Ping(i));
+        }
+        // And a payload spanning several segments
+        final Transaction large = createTransaction();
+        large.addOutput(new TransactionOutput(params, large, Coin.COIN, new byte[150 * 1024]));
+        messages.add(large);
+        messages.add(createTransaction());
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (Message message : messages) {
+            serializer.serialize(message, expected);
+        }
+
+        final File file = File.createTempFile("batch", ".bin");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            serializer.serialize(messages, raf.getChannel());
+            final byte[] actual = new byte[(int) raf.length()];
+            raf.seek(0);
+            raf.readFully(actual);
+            assertArrayEquals(expected.toByteArray(), actual);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import java.util.Random;
+
+/**
+ * Times double SHA-256 of block header sized and larger inputs with each
+ * {@link Sha256Provider}. Not run as part of the tests; run {@code main}
+ * directly.
+ */
+public class Sha256Benchmark {
+    private static final int ITERATIONS = 500000;
+
+    public static void main(final String[] args) {
+        final Sha256Provider[] providers = { new MessageDigestSha256Provider(), new UnrolledSha256Provider() };
+        final Random random = new Random(42);
+        for (int length : new int[] { 64, 80, 1000 }) {
+            final byte[] input = new byte[length];
+            random.nextBytes(input);
+            for (Sha256Provider provider : providers) {
+                Sha256.setProvider(provider);
+                // Warm up before timing
+                run(input, ITERATIONS);
+                final long start = System.nanoTime();
+                run(input, ITERATIONS);
+                final long elapsed = System.nanoTime() - start;
+                System.out.printf("%s, %d bytes: %.0f ns per double hash%n", provider.getClass().getSimpleName(),
+                    length, (double) elapsed / ITERATIONS);
+            }
+        }
+    }
+
+    private static int run(final byte[] input, final int iterations) {
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            input[0] = (byte) i;
+            sink += Sha256.hashTwice(input)[0];
+        }
+        return sink;
+    }
+}
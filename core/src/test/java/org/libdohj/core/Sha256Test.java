@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.bitcoinj.core.MerkleHasher;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class Sha256Test {
+    @After
+    public void tearDown() {
+        Sha256.setProvider(new MessageDigestSha256Provider());
+    }
+
+    @Test
+    public void shouldMatchJdkDigest() throws Exception {
+        final Random random = new Random(42);
+        final MessageDigest expected = MessageDigest.getInstance("SHA-256");
+        final MessageDigest digest = new UnrolledSha256Digest();
+        // Every length around the padding and block boundaries, fed in uneven pieces
+        for (int length = 0; length <= 300; length++) {
+            final byte[] input = new byte[length];
+            random.nextBytes(input);
+            int offset = 0;
+            while (offset < length) {
+                final int piece = Math.min(length - offset, random.nextInt(70));
+                if (piece == 1) {
+                    digest.update(input[offset]);
+                } else {
+                    digest.update(input, offset, piece);
+                }
+                offset += piece;
+            }
+            assertArrayEquals(expected.digest(input), digest.digest());
+        }
+
+        // A clone carries on from the same state
+        final byte[] input = new byte[100];
+        random.nextBytes(input);
+        digest.update(input, 0, 70);
+        final MessageDigest copy = (MessageDigest) digest.clone();
+        digest.update(input, 70, 30);
+        copy.update(input, 70, 30);
+        assertArrayEquals(expected.digest(input), digest.digest());
+        assertArrayEquals(expected.digest(input), copy.digest());
+    }
+
+    @Test
+    public void shouldHashWithProvider() {
+        final byte[] input = new byte[200];
+        new Random(42).nextBytes(input);
+        final Sha256Hash left = Sha256Hash.of(new byte[] { 1 });
+        final Sha256Hash right = Sha256Hash.of(new byte[] { 2 });
+        final Sha256Hash parent = MerkleHasher.get().combine(left.getBytes(), right.getBytes());
+        for (Sha256Provider provider : new Sha256Provider[] { new MessageDigestSha256Provider(),
+                new UnrolledSha256Provider() }) {
+            Sha256.setProvider(provider);
+            assertSame(provider, Sha256.getProvider());
+            assertArrayEquals(Sha256Hash.hashTwice(input, 3, 150), Sha256.hashTwice(input, 3, 150));
+            assertEquals(parent, MerkleHasher.get().combine(left.getBytes(), right.getBytes()));
+        }
+    }
+}
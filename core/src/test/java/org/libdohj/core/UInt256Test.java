@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.core;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.bitcoinj.core.Utils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks {@link UInt256} against the equivalent {@link BigInteger} arithmetic.
+ */
+public class UInt256Test {
+    private static final BigInteger MAX = BigInteger.ONE.shiftLeft(256);
+
+    @Test
+    public void shouldMatchCompactBits() {
+        final Random random = new Random(42);
+        final long[] fixed = { 0x1d00ffffL, 0x1e0fffffL, 0x207fffffL, 0x1b06f8f0L, 0x01003456L, 0x01123456L,
+            0x02123456L, 0x03123456L, 0x04123456L, 0x04923456L, 0x00923456L, 0x21010000L, 0x22010000L, 0x20800000L };
+        for (int i = 0; i < 20000; i++) {
+            final long compact = i < fixed.length ? fixed[i] : random.nextInt() & 0xffffffffL;
+            final BigInteger expected = Utils.decodeCompactBits(compact);
+            final UInt256 actual = UInt256.fromCompactBits(compact);
+            if (expected.signum() < 0 || expected.compareTo(MAX) >= 0) {
+                assertNull(Long.toHexString(compact), actual);
+            } else {
+                assertEquals(Long.toHexString(compact), expected, actual.toBigInteger());
+                assertEquals(Long.toHexString(compact), Utils.encodeCompactBits(expected), actual.encodeCompactBits());
+            }
+        }
+    }
+
+    @Test
+    public void shouldMatchArithmetic() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            final BigInteger a = new BigInteger(random.nextInt(257), random);
+            final BigInteger b = new BigInteger(random.nextInt(257), random);
+            final int small = random.nextInt(Integer.MAX_VALUE) + 1;
+            final int shift = random.nextInt(600) - 300;
+            final UInt256 x = UInt256.fromBigInteger(a);
+            final UInt256 y = UInt256.fromBigInteger(b);
+
+            assertEquals(a, x.toBigInteger());
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(x.compareTo(y)));
+            assertEquals(a.bitLength(), x.bitLength());
+            assertEquals(a.divide(BigInteger.valueOf(small)), x.divide(small).toBigInteger());
+            assertEquals(a.and(b), x.and(y).toBigInteger());
+            assertEquals(a.shiftLeft(shift).mod(MAX), x.shiftLeft(shift).toBigInteger());
+            assertEquals(Utils.encodeCompactBits(a), x.encodeCompactBits());
+
+            final BigInteger product = a.multiply(BigInteger.valueOf(small));
+            if (product.compareTo(MAX) >= 0) {
+                assertNull(x.multiply(small));
+            } else {
+                assertEquals(product, x.multiply(small).toBigInteger());
+            }
+        }
+    }
+}
@@ -16,9 +16,26 @@
 package org.libdohj.params;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
 import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.libdohj.store.AncestorBlockStore;
+import org.libdohj.store.CompactHeaderStore;
 
 import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 
 /**
@@ -26,14 +43,151 @@ import org.junit.Before;
  * @author Ross Nicoll
  */
 public class AbstractSyscoinParamsTest {
-    private static final AbstractSyscoinParams params = SyscoinMainNetParams.get();
+    private static final AbstractSyscoinParams params = SyscoinUnitTestParams.get();
 
     @Before
     public void setUp() throws Exception {
         Context context = new Context(params);
     }
 
+    /**
+     * Memory block store which counts lookups by hash.
+     */
+    private static class CountingBlockStore extends MemoryBlockStore {
+        int gets = 0;
+
+        CountingBlockStore(final AbstractSyscoinParams params) {
+            super(params);
+        }
+
+        @Override
+        public synchronized StoredBlock get(final Sha256Hash hash) throws BlockStoreException {
+            gets++;
+            return super.get(hash);
+        }
+    }
+
+    /**
+     * Memory block store which claims to index ancestors, but cannot find the
+     * first one asked for, then returns the wrong block.
+     */
+    private static class UnreliableAncestorStore extends CountingBlockStore implements AncestorBlockStore {
+        private int ancestorLookups = 0;
+
+        UnreliableAncestorStore(final AbstractSyscoinParams params) {
+            super(params);
+        }
+
+        @Override
+        public StoredBlock getAncestor(final StoredBlock block, final int height) {
+            return ancestorLookups++ == 0 ? null : block;
+        }
+    }
+
+    /**
+     * Compact header store which counts lookups by hash and of ancestors.
+     */
+    private static class CountingHeaderStore extends CompactHeaderStore {
+        int gets = 0;
+        int ancestorLookups = 0;
+
+        CountingHeaderStore(final AbstractSyscoinParams params) throws BlockStoreException {
+            super(params);
+        }
+
+        @Override
+        public synchronized StoredBlock get(final Sha256Hash hash) throws BlockStoreException {
+            gets++;
+            return super.get(hash);
+        }
+
+        @Override
+        public synchronized StoredBlock getAncestor(final StoredBlock block, final int height)
+                throws BlockStoreException {
+            ancestorLookups++;
+            return super.getAncestor(block, height);
+        }
+    }
+
+    /**
+     * Build the next header at the maximum target. The last block of each period
+     * is timed so the period takes exactly the target timespan, leaving the
+     * target unchanged.
+     */
+    private static AltcoinBlock createNextHeader(final AbstractSyscoinParams params, final StoredBlock prev,
+            final long periodStartTime, final long difficultyTarget) {
+        final int height = prev.getHeight() + 1;
+        final long time = params.isDifficultyTransitionPoint(height)
+            ? periodStartTime + params.getTargetTimespan()
+            : prev.getHeader().getTimeSeconds() + AbstractSyscoinParams.SYSCOIN_TARGET_SPACING;
+        return new AltcoinBlock(params, 2, prev.getHeader().getHash(), Sha256Hash.ZERO_HASH, time,
+            difficultyTarget, height, new ArrayList<Transaction>());
+    }
 
+    /**
+     * Check and store headers through the given number of retargets, checking
+     * the calculated target is enforced at each.
+     *
+     * @return the number of lookups by hash made by each retarget.
+     */
+    private static List<Integer> checkRetargets(final BlockStore store, final CountingBlockStore counter,
+            final CountingHeaderStore headerCounter, final int retargets) throws Exception {
+        final long maxTarget = params.getGenesisBlock().getDifficultyTarget();
+        final List<Integer> retargetGets = new ArrayList<Integer>();
+        StoredBlock prev = store.getChainHead();
+        long periodStartTime = prev.getHeader().getTimeSeconds();
 
+        while (retargetGets.size() < retargets) {
+            final AltcoinBlock next = createNextHeader(params, prev, periodStartTime, maxTarget);
+            final int getsBefore = null == counter ? headerCounter.gets : counter.gets;
+            params.checkDifficultyTransitions(prev, next, store);
+            if (params.isDifficultyTransitionPoint(prev.getHeight())) {
+                retargetGets.add((null == counter ? headerCounter.gets : counter.gets) - getsBefore);
+                periodStartTime = next.getTimeSeconds();
 
+                // The calculated target must still be enforced
+                final AltcoinBlock wrong = createNextHeader(params, prev, periodStartTime, maxTarget - 1);
+                try {
+                    params.checkDifficultyTransitions(prev, wrong, store);
+                    fail("Expected VerificationException");
+                } catch (VerificationException e) {
+                    // Expected
+                }
+            }
+            prev = prev.build(next);
+            store.put(prev);
+        }
+        return retargetGets;
+    }
+
+    @Test
+    public void shouldFindPeriodStartThroughAncestorIndex() throws Exception {
+        final CountingHeaderStore store = new CountingHeaderStore(params);
+        final List<Integer> retargetGets = checkRetargets(store, null, store, 2);
+
+        // Each retarget, including the one checked again with the wrong target,
+        // asks the index once and never walks the period
+        assertEquals(0, (int) retargetGets.get(0));
+        assertEquals(0, (int) retargetGets.get(1));
+        assertEquals(4, store.ancestorLookups);
+    }
+
+    @Test
+    public void shouldWalkBackWithoutAncestorIndex() throws Exception {
+        final CountingBlockStore store = new CountingBlockStore(params);
+        final List<Integer> retargetGets = checkRetargets(store, store, null, 2);
+
+        assertEquals(params.getInterval(), (int) retargetGets.get(0));
+        assertEquals(params.getInterval(), (int) retargetGets.get(1));
+    }
+
+    @Test
+    public void shouldWalkBackIfAncestorIsMissingOrWrong() throws Exception {
+        final UnreliableAncestorStore store = new UnreliableAncestorStore(params);
+        final List<Integer> retargetGets = checkRetargets(store, store, null, 2);
+
+        // The first lookup finds no ancestor, and later ones the wrong height
+        assertEquals(params.getInterval(), (int) retargetGets.get(0));
+        assertEquals(params.getInterval(), (int) retargetGets.get(1));
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.params;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check the 256 bit retarget arithmetic gives the same result as the
+ * {@link java.math.BigInteger} arithmetic it replaces.
+ */
+@RunWith(Parameterized.class)
+public class RetargetArithmeticTest {
+    private static final AbstractSyscoinParams params = SyscoinUnitTestParams.get();
+    private static final int BITCOIN_TARGET_TIMESPAN = 14 * 24 * 60 * 60;
+    private static final int TARGET_TIMESPAN = AbstractSyscoinParams.SYSCOIN_TARGET_TIMESPAN;
+    private static final int BRIDGE_HEIGHT = 348000;
+    private static final long MAX_TARGET = 0x207fffffL;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+            // Bitcoin block 32256, the first retarget
+            { "bitcoin 32256", 0x1d00ffffL, 1262152739 - 1261130161, 0, BITCOIN_TARGET_TIMESPAN, 1022578,
+                0x1d00d86aL, 0x1d00d86aL },
+            { "unchanged", 0x1b0404cbL, TARGET_TIMESPAN, 0, TARGET_TIMESPAN, TARGET_TIMESPAN,
+                0x1b0404cbL, 0x1b0404cbL },
+            { "clamp low", 0x1d00ffffL, 1, 0, TARGET_TIMESPAN, TARGET_TIMESPAN / 4,
+                0x1c3fffc0L, 0x1c3fffc0L },
+            { "clamp high", 0x1d00ffffL, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                0x1d03fffcL, 0x1d03fffcL },
+            { "negative timespan", 0x1d00ffffL, -1000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN / 4,
+                0x1c3fffc0L, 0x1c3fffc0L },
+            { "bridge clamp low", 0x1d00ffffL, 1, BRIDGE_HEIGHT, TARGET_TIMESPAN, 17280,
+                0x1d00ccccL, 0x1d00ccccL },
+            { "bridge clamp high", 0x1d00ffffL, 1000000, BRIDGE_HEIGHT, TARGET_TIMESPAN, 27000,
+                0x1d013ffeL, 0x1d013ffeL },
+            { "max target", MAX_TARGET, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                MAX_TARGET, MAX_TARGET },
+            { "just over max target", 0x207fff00L, TARGET_TIMESPAN + 10, 0, TARGET_TIMESPAN, TARGET_TIMESPAN + 10,
+                MAX_TARGET, MAX_TARGET },
+            // Received exponents below 3 mask off all but the lowest bytes
+            { "exponent 2", 0x1d00ffffL, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                0x02000000L, null },
+            { "exponent 1", 0x1d00ffffL, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                0x01000000L, null },
+            { "exponent 0", 0x1d00ffffL, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                0x00000000L, 0x01000000L },
+            { "small target exponent 2", 0x0300ffffL, 1, 0, TARGET_TIMESPAN, TARGET_TIMESPAN / 4,
+                0x02000000L, null },
+            // Received exponents above 32 mask beyond the maximum target
+            { "exponent 33", MAX_TARGET, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                0x21000000L, null },
+            { "exponent 34", MAX_TARGET, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                0x22000000L, null },
+            { "exponent 35", MAX_TARGET, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                0x23000000L, 0x01000000L },
+            { "exponent 255", MAX_TARGET, 1000000, 0, TARGET_TIMESPAN, TARGET_TIMESPAN * 4,
+                0xff000000L, 0x01000000L },
+            // Previous targets which do not fit in 256 bits, or whose product
+            // does not, take the BigInteger path
+            { "previous exponent 33", 0x2100ffffL, TARGET_TIMESPAN, 0, TARGET_TIMESPAN, TARGET_TIMESPAN,
+                MAX_TARGET, MAX_TARGET },
+            { "previous exponent 34", 0x22000001L, TARGET_TIMESPAN, 0, TARGET_TIMESPAN, TARGET_TIMESPAN,
+                MAX_TARGET, 0x20010000L },
+            { "previous exponent 35", 0x2300ffffL, TARGET_TIMESPAN, 0, TARGET_TIMESPAN, TARGET_TIMESPAN,
+                0x23000000L, null },
+            { "previous negative", 0x1d80ffffL, TARGET_TIMESPAN, 0, TARGET_TIMESPAN, TARGET_TIMESPAN,
+                0x1d000000L, null }
+        });
+    }
+
+    @Parameter(0)
+    public String name;
+    @Parameter(1)
+    public long prevTargetCompact;
+    @Parameter(2)
+    public int actualTimespan;
+    @Parameter(3)
+    public int prevHeight;
+    @Parameter(4)
+    public int targetTimespan;
+    @Parameter(5)
+    public int expectedTimespan;
+    @Parameter(6)
+    public long receivedTargetCompact;
+    /** Expected target, or null where only the two calculations are compared. */
+    @Parameter(7)
+    public Long expectedTargetCompact;
+
+    @Test
+    public void shouldMatchBigIntegerArithmetic() {
+        final int timespan = params.limitTimespan(actualTimespan, targetTimespan, prevHeight);
+        assertEquals(expectedTimespan, timespan);
+
+        final int accuracyBytes = (int) (receivedTargetCompact >>> 24) - 3;
+        final long expected = params.calculateNextTargetCompactWithBigInteger(prevTargetCompact, timespan,
+            targetTimespan, accuracyBytes);
+        final long actual = params.calculateNextTargetCompact(prevTargetCompact, timespan, targetTimespan,
+            accuracyBytes);
+        assertEquals(Long.toHexString(expected), Long.toHexString(actual));
+        if (expectedTargetCompact != null) {
+            assertEquals(Long.toHexString(expectedTargetCompact), Long.toHexString(actual));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.params;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Utils;
+
+/**
+ * Syscoin rules, including AuxPoW and retargeting, on a network of their own
+ * for unit tests. Unlike the real networks, the genesis block is not checked
+ * against a known hash, and blocks are trivially solvable.
+ */
+public class SyscoinUnitTestParams extends AbstractSyscoinParams {
+    public static final String ID_SYSCOIN_UNITTEST = "org.syscoin.unittest";
+
+    public SyscoinUnitTestParams() {
+        super();
+        id = ID_SYSCOIN_UNITTEST;
+        packetMagic = 0x0b110907;
+        port = 19903;
+        addressHeader = 65;
+        p2shHeader = 196;
+        dumpedPrivateKeyHeader = 239;
+        segwitAddressHrp = "tsys";
+        maxTarget = Utils.decodeCompactBits(Block.EASIEST_DIFFICULTY_TARGET);
+        genesisBlock.setTime(1576000000L);
+        genesisBlock.setDifficultyTarget(Block.EASIEST_DIFFICULTY_TARGET);
+        genesisBlock.solve();
+        spendableCoinbaseDepth = 5;
+        subsidyDecreaseBlockCount = 100;
+        majorityEnforceBlockUpgrade = 3;
+        majorityRejectBlockOutdated = 4;
+        majorityWindow = 7;
+        bip32HeaderP2PKHpub = 0x043587cf;
+        bip32HeaderP2PKHpriv = 0x04358394;
+        bip32HeaderP2WPKHpub = 0x045f1cf6;
+        bip32HeaderP2WPKHpriv = 0x045f18bc;
+    }
+
+    private static SyscoinUnitTestParams instance;
+    public static synchronized SyscoinUnitTestParams get() {
+        if (instance == null) {
+            instance = new SyscoinUnitTestParams();
+        }
+        return instance;
+    }
+
+    @Override
+    public String getPaymentProtocolId() {
+        return ID_SYSCOIN_UNITTEST;
+    }
+
+    @Override
+    public boolean isTestNet() {
+        return true;
+    }
+}
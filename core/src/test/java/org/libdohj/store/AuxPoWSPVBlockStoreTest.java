@@ -0,0 +1,232 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStoreException;
+import org.libdohj.params.AbstractSyscoinParams;
+import org.libdohj.params.SyscoinUnitTestParams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AuxPoWSPVBlockStoreTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReopenWithChainHead() throws Exception {
+        new Context(params);
+        final File file = folder.newFile();
+        file.delete();
+
+        AuxPoWSPVBlockStore store = new AuxPoWSPVBlockStore(params, file, 100, 1000);
+        assertEquals(params.getGenesisBlock().getHash(), store.getChainHead().getHeader().getHash());
+        final List<StoredBlock> chain = HeaderChains.buildChain(params, store.getChainHead(), 50);
+        for (StoredBlock block : chain) {
+            store.put(block);
+            store.setChainHead(block);
+        }
+        store.close();
+
+        store = new AuxPoWSPVBlockStore(params, file, 100, 1000);
+        assertEquals(chain.get(chain.size() - 1), store.getChainHead());
+        for (StoredBlock block : chain) {
+            assertEquals(block, store.get(block.getHeader().getHash()));
+        }
+        store.close();
+    }
+
+    @Test
+    public void shouldForgetOldestHeadersWhenFull() throws Exception {
+        new Context(params);
+        final File file = folder.newFile();
+        file.delete();
+
+        final int capacity = 16;
+        final AuxPoWSPVBlockStore store = new AuxPoWSPVBlockStore(params, file, capacity, 1000);
+        final List<StoredBlock> chain = HeaderChains.buildChain(params, store.getChainHead(), 100);
+        for (StoredBlock block : chain) {
+            store.put(block);
+        }
+        assertNull(store.get(params.getGenesisBlock().getHash()));
+        for (int i = 0; i < chain.size(); i++) {
+            final StoredBlock block = chain.get(i);
+            if (i < chain.size() - capacity) {
+                assertNull(store.get(block.getHeader().getHash()));
+            } else {
+                assertEquals(block, store.get(block.getHeader().getHash()));
+            }
+        }
+        store.close();
+    }
+
+    @Test
+    public void shouldFindAncestorsStillStored() throws Exception {
+        new Context(params);
+        final File file = folder.newFile();
+        file.delete();
+
+        final int capacity = 16;
+        final AuxPoWSPVBlockStore store = new AuxPoWSPVBlockStore(params, file, capacity, 1000);
+        final List<StoredBlock> chain = HeaderChains.buildChain(params, store.getChainHead(), 100);
+        for (StoredBlock block : chain) {
+            store.put(block);
+        }
+        final StoredBlock tip = chain.get(chain.size() - 1);
+        assertEquals(tip, store.getAncestor(tip, tip.getHeight()));
+        assertEquals(chain.get(chain.size() - capacity),
+            store.getAncestor(tip, tip.getHeight() - capacity + 1));
+        // Older ancestors have been overwritten
+        assertNull(store.getAncestor(tip, tip.getHeight() - capacity));
+        store.close();
+    }
+
+    @Test
+    public void shouldUsePreviousHeadAfterTornWrite() throws Exception {
+        new Context(params);
+        final File file = folder.newFile();
+        file.delete();
+
+        AuxPoWSPVBlockStore store = new AuxPoWSPVBlockStore(params, file, 100, 1000);
+        final List<StoredBlock> chain = HeaderChains.buildChain(params, store.getChainHead(), 2);
+        store.put(chain.get(0));
+        store.put(chain.get(1));
+        store.setChainHead(chain.get(0));
+        store.setChainHead(chain.get(1));
+        store.close();
+
+        // Heads alternate slots, starting from the genesis block in the second,
+        // so the last head is in the second slot too
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(AuxPoWSPVBlockStore.HEAD_SLOT_OFFSET + AuxPoWSPVBlockStore.HEAD_SLOT_SIZE + 20);
+        raf.write(0xff);
+        raf.close();
+
+        store = new AuxPoWSPVBlockStore(params, file, 100, 1000);
+        assertEquals(chain.get(0), store.getChainHead());
+        store.close();
+    }
+
+    @Test
+    public void shouldKeepAuxPoW() throws Exception {
+        final NetworkParameters syscoinParams = SyscoinUnitTestParams.get();
+        new Context(syscoinParams);
+        final File file = folder.newFile();
+        file.delete();
+
+        final byte[] auxpow = ByteStreams.toByteArray(getClass().getResourceAsStream("/org/bitcoinj/core/auxpow_header.bin"));
+        final byte[] payload = new byte[Block.HEADER_SIZE + auxpow.length + 1];
+        Utils.uint32ToByteArrayLE((AbstractSyscoinParams.AUXPOW_CHAIN_ID << 16) | 0x100 | 2, payload, 0);
+        Utils.uint32ToByteArrayLE(0x1b06f8f0L, payload, 72);
+        System.arraycopy(auxpow, 0, payload, Block.HEADER_SIZE, auxpow.length);
+        final AltcoinBlock header = new AltcoinBlock(syscoinParams, payload);
+        final StoredBlock stored = new StoredBlock(header, header.getWork(), 1);
+
+        // Too small an AuxPoW ring to keep it for long
+        final AuxPoWSPVBlockStore store = new AuxPoWSPVBlockStore(syscoinParams, file, 100, auxpow.length + 10);
+        store.put(stored);
+        final AltcoinBlock read = (AltcoinBlock) store.get(header.getHash()).getHeader();
+        assertTrue(read.hasAuxPoW());
+        assertArrayEquals(header.cloneAsHeader().bitcoinSerialize(), read.cloneAsHeader().bitcoinSerialize());
+        assertNotNull(read.getAuxPoW());
+
+        // A second block's AuxPoW overwrites the first in the ring, leaving only its header
+        Utils.uint32ToByteArrayLE(1, payload, 76);
+        final AltcoinBlock second = new AltcoinBlock(syscoinParams, payload);
+        store.put(new StoredBlock(second, second.getWork(), 1));
+        assertTrue(((AltcoinBlock) store.get(second.getHash()).getHeader()).hasAuxPoW());
+        final AltcoinBlock evicted = (AltcoinBlock) store.get(header.getHash()).getHeader();
+        assertEquals(header.getHash(), evicted.getHash());
+        assertFalse(evicted.hasAuxPoW());
+        store.close();
+    }
+
+    @Test
+    public void shouldRejectMissingOrMismatchedAuxPoWFile() throws Exception {
+        new Context(params);
+        final File file = folder.newFile();
+        file.delete();
+        final File auxpowFile = new File(file.getPath() + AuxPoWSPVBlockStore.AUXPOW_FILE_SUFFIX);
+        new AuxPoWSPVBlockStore(params, file, 16, 1000).close();
+        final byte[] auxpowBytes = Files.toByteArray(auxpowFile);
+
+        // Missing
+        assertTrue(auxpowFile.delete());
+        assertRejected(file);
+        assertFalse(auxpowFile.exists());
+
+        // Truncated
+        Files.write(Arrays.copyOf(auxpowBytes, 500), auxpowFile);
+        assertRejected(file);
+
+        // The right size, but not written by the store
+        Files.write(new byte[auxpowBytes.length], auxpowFile);
+        assertRejected(file);
+
+        Files.write(auxpowBytes, auxpowFile);
+        new AuxPoWSPVBlockStore(params, file, 16, 1000).close();
+    }
+
+    private static void assertRejected(final File file) {
+        try {
+            new AuxPoWSPVBlockStore(params, file, 16, 1000);
+            fail("Expected BlockStoreException");
+        } catch (BlockStoreException expected) {
+            // The store must not be opened with its AuxPoW lost
+        }
+    }
+
+    @Test
+    public void shouldRejectCapacityTooLargeToMap() throws Exception {
+        // The index rounds up to a power of two, taking up to four slots per record
+        assertEquals(AuxPoWSPVBlockStore.FILE_PROLOGUE_BYTES + (1 << 23) * AuxPoWSPVBlockStore.RECORD_SIZE
+            + (1 << 24) * 4, AuxPoWSPVBlockStore.getFileSize(1 << 23));
+        final File file = folder.newFile();
+        file.delete();
+        try {
+            new AuxPoWSPVBlockStore(params, file, 14128181, 1000);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // The file would be over 2GiB
+        }
+        assertFalse(file.exists());
+    }
+}
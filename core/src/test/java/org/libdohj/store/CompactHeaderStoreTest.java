@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompactHeaderStoreTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+    }
+
+    @Test
+    public void shouldStoreGenesis() throws Exception {
+        final CompactHeaderStore store = new CompactHeaderStore(params);
+        final StoredBlock head = store.getChainHead();
+        assertEquals(params.getGenesisBlock().getHash(), head.getHeader().getHash());
+        assertEquals(0, head.getHeight());
+        assertEquals(1, store.size());
+        assertNull(store.get(Sha256Hash.ZERO_HASH));
+    }
+
+    @Test
+    public void shouldRoundTripChain() throws Exception {
+        final CompactHeaderStore store = new CompactHeaderStore(params);
+        // Enough blocks to grow the index and span several segments
+        final List<StoredBlock> chain = HeaderChains.buildChain(params, store.getChainHead(), 20000);
+        for (StoredBlock block : chain) {
+            store.put(block);
+        }
+        store.setChainHead(chain.get(chain.size() - 1));
+
+        assertEquals(chain.size() + 1, store.size());
+        for (StoredBlock block : chain) {
+            assertEquals(block, store.get(block.getHeader().getHash()));
+            assertEquals(block.getChainWork(), store.get(block.getHeader().getHash()).getChainWork());
+        }
+        assertEquals(chain.get(chain.size() - 1), store.getChainHead());
+
+        // Storing a block again replaces its record
+        store.put(chain.get(0));
+        assertEquals(chain.size() + 1, store.size());
+    }
+
+    @Test
+    public void shouldFindAncestors() throws Exception {
+        final CompactHeaderStore store = new CompactHeaderStore(params);
+        final List<StoredBlock> chain = HeaderChains.buildChain(params, store.getChainHead(), 5000);
+        for (StoredBlock block : chain) {
+            store.put(block);
+        }
+
+        final StoredBlock tip = chain.get(chain.size() - 1);
+        for (int height = 0; height <= tip.getHeight(); height += 7) {
+            final StoredBlock expected = height == 0 ? store.get(params.getGenesisBlock().getHash())
+                : chain.get(height - 1);
+            assertEquals(expected, store.getAncestor(tip, height));
+        }
+        assertEquals(tip, store.getAncestor(tip, tip.getHeight()));
+        assertEquals(chain.get(2046), store.getAncestor(chain.get(3999), 2047));
+        assertNull(store.getAncestor(tip, tip.getHeight() + 1));
+        assertNull(store.getAncestor(tip, -1));
+    }
+}
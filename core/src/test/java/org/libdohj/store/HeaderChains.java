@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+
+/**
+ * Header chains for block store tests.
+ */
+final class HeaderChains {
+    private HeaderChains() {
+    }
+
+    /**
+     * Build a chain of headers on top of the given block, without solving them;
+     * the stores do not check proof of work.
+     */
+    static List<StoredBlock> buildChain(final NetworkParameters params, final StoredBlock genesis,
+            final int length) {
+        final List<StoredBlock> chain = new ArrayList<StoredBlock>();
+        StoredBlock prev = genesis;
+        for (int i = 0; i < length; i++) {
+            final Block header = new Block(params, Block.BLOCK_VERSION_GENESIS, prev.getHeader().getHash(),
+                Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8) }), prev.getHeader().getTimeSeconds() + 600,
+                Block.EASIEST_DIFFICULTY_TARGET, i, new ArrayList<Transaction>());
+            prev = prev.build(header);
+            chain.add(prev);
+        }
+        return chain;
+    }
+}
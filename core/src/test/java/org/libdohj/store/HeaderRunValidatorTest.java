@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 The libdohj team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.libdohj.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.AltcoinBlock;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStoreException;
+import org.libdohj.params.AbstractSyscoinParams;
+import org.libdohj.params.SyscoinUnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HeaderRunValidatorTest {
+    private static final NetworkParameters params = UnitTestParams.get();
+
+    /** Stay short of the first difficulty transition. */
+    private static final int RUN_LENGTH = 9;
+
+    private CompactHeaderStore store;
+    private HeaderRunValidator validator;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(params);
+        store = new CompactHeaderStore(params);
+        validator = new HeaderRunValidator(params);
+    }
+
+    private static Block solvedHeader(final Block prev, final long time, final int i) {
+        final Block header = new Block(params, Block.BLOCK_VERSION_GENESIS, prev.getHash(),
+            Sha256Hash.of(new byte[] { (byte) i }), time, Block.EASIEST_DIFFICULTY_TARGET, 0,
+            new ArrayList<Transaction>());
+        header.solve();
+        return header;
+    }
+
+    private static List<Block> buildRun(final Block genesis, final int length) {
+        final List<Block> run = new ArrayList<Block>();
+        Block prev = genesis;
+        for (int i = 0; i < length; i++) {
+            prev = solvedHeader(prev, prev.getTimeSeconds() + 600, i);
+            run.add(prev);
+        }
+        return run;
+    }
+
+    @Test
+    public void shouldStoreValidRun() throws Exception {
+        final StoredBlock genesis = store.getChainHead();
+        final List<Block> run = buildRun(genesis.getHeader(), RUN_LENGTH);
+        final List<StoredBlock> stored = validator.validateAndStore(genesis, run, store);
+
+        assertEquals(run.size(), stored.size());
+        for (int i = 0; i < run.size(); i++) {
+            final StoredBlock block = store.get(run.get(i).getHash());
+            assertEquals(stored.get(i), block);
+            assertEquals(i + 1, block.getHeight());
+        }
+        // Storing a run does not move the chain head
+        assertEquals(genesis, store.getChainHead());
+    }
+
+    @Test
+    public void shouldStoreNothingIfRunDoesNotConnect() throws Exception {
+        final StoredBlock genesis = store.getChainHead();
+        final List<Block> run = buildRun(genesis.getHeader(), RUN_LENGTH);
+        run.remove(4);
+        try {
+            validator.validateAndStore(genesis, run, store);
+            fail("Expected the run to be rejected");
+        } catch (VerificationException expected) {
+            assertEquals(0, expected.getMessage().indexOf("Header " + run.get(4).getHashAsString()));
+        }
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void shouldRejectTimestampBeforeMedian() throws Exception {
+        final StoredBlock genesis = store.getChainHead();
+        final List<Block> run = buildRun(genesis.getHeader(), 4);
+        // The median of the five blocks before is the third, so this is too early
+        run.add(solvedHeader(run.get(3), run.get(1).getTimeSeconds(), 99));
+        try {
+            new HeaderRunValidator(params, true).validateAndStore(genesis, run, store);
+            fail("Expected the run to be rejected");
+        } catch (VerificationException expected) {
+            assertEquals("Block's timestamp is too early", expected.getMessage());
+        }
+        assertEquals(1, store.size());
+
+        // An SPV chain does not check the median, so neither does the default validator
+        validator.validateAndStore(genesis, run, store);
+        assertEquals(run.size() + 1, store.size());
+    }
+
+    /**
+     * Compact header store which counts lookups by hash and of ancestors.
+     */
+    private static class CountingHeaderStore extends CompactHeaderStore {
+        int gets = 0;
+        int ancestorLookups = 0;
+
+        CountingHeaderStore(final NetworkParameters params) throws BlockStoreException {
+            super(params);
+        }
+
+        @Override
+        public synchronized StoredBlock get(final Sha256Hash hash) throws BlockStoreException {
+            gets++;
+            return super.get(hash);
+        }
+
+        @Override
+        public synchronized StoredBlock getAncestor(final StoredBlock block, final int height)
+                throws BlockStoreException {
+            ancestorLookups++;
+            return super.getAncestor(block, height);
+        }
+    }
+
+    /**
+     * Build a run of Syscoin headers at the maximum target, timing the last block
+     * of each period so the period takes exactly the target timespan, leaving the
+     * target unchanged.
+     *
+     * @param retargetBits difficulty bits for the first block after each retarget.
+     */
+    private static List<Block> buildSyscoinRun(final AbstractSyscoinParams syscoinParams, final StoredBlock prev,
+            final long periodStartTime, final int length, final long retargetBits) {
+        final List<Block> run = new ArrayList<Block>();
+        Block header = prev.getHeader();
+        long startTime = periodStartTime;
+        for (int height = prev.getHeight() + 1; height <= prev.getHeight() + length; height++) {
+            final boolean retarget = syscoinParams.isDifficultyTransitionPoint(height - 1);
+            final long time = syscoinParams.isDifficultyTransitionPoint(height)
+                ? startTime + syscoinParams.getTargetTimespan()
+                : header.getTimeSeconds() + AbstractSyscoinParams.SYSCOIN_TARGET_SPACING;
+            header = new AltcoinBlock(syscoinParams, 2, header.getHash(), Sha256Hash.of(new byte[] { (byte) height }),
+                time, retarget ? retargetBits : header.getDifficultyTarget(), 0, new ArrayList<Transaction>());
+            header.solve();
+            if (retarget) {
+                startTime = time;
+            }
+            run.add(header);
+        }
+        return run;
+    }
+
+    @Test
+    public void shouldApplySyscoinRetargetAcrossRun() throws Exception {
+        final AbstractSyscoinParams syscoinParams = SyscoinUnitTestParams.get();
+        new Context(syscoinParams);
+        final CountingHeaderStore syscoinStore = new CountingHeaderStore(syscoinParams);
+        final HeaderRunValidator syscoinValidator = new HeaderRunValidator(syscoinParams);
+        final StoredBlock genesis = syscoinStore.getChainHead();
+        final long maxBits = genesis.getHeader().getDifficultyTarget();
+        final int interval = syscoinParams.getInterval();
+
+        // Store most of the first period, then validate a run across the retarget,
+        // whose period starts before the run
+        final List<Block> first = buildSyscoinRun(syscoinParams, genesis, genesis.getHeader().getTimeSeconds(),
+            interval - 10, maxBits);
+        final List<StoredBlock> stored = syscoinValidator.validateAndStore(genesis, first, syscoinStore);
+        final StoredBlock runPrev = stored.get(stored.size() - 1);
+        final List<Block> run = buildSyscoinRun(syscoinParams, runPrev, genesis.getHeader().getTimeSeconds(), 20,
+            maxBits);
+
+        syscoinStore.gets = 0;
+        syscoinStore.ancestorLookups = 0;
+        final List<StoredBlock> runStored = syscoinValidator.validateAndStore(runPrev, run, syscoinStore);
+        assertEquals(interval + 10, runStored.get(runStored.size() - 1).getHeight());
+        // The period start is found through the store's index, not by walking back
+        assertEquals(1, syscoinStore.ancestorLookups);
+        assertTrue(syscoinStore.gets < interval);
+        assertEquals(interval + 11, syscoinStore.size());
+    }
+
+    @Test
+    public void shouldRejectWrongBitsAtSyscoinRetarget() throws Exception {
+        final AbstractSyscoinParams syscoinParams = SyscoinUnitTestParams.get();
+        new Context(syscoinParams);
+        final CompactHeaderStore syscoinStore = new CompactHeaderStore(syscoinParams);
+        final StoredBlock genesis = syscoinStore.getChainHead();
+        final long maxBits = genesis.getHeader().getDifficultyTarget();
+
+        final List<Block> run = buildSyscoinRun(syscoinParams, genesis, genesis.getHeader().getTimeSeconds(),
+            syscoinParams.getInterval() + 10, maxBits - 1);
+        try {
+            new HeaderRunValidator(syscoinParams).validateAndStore(genesis, run, syscoinStore);
+            fail("Expected the run to be rejected");
+        } catch (VerificationException expected) {
+            assertEquals(0, expected.getMessage().indexOf("Network provided difficulty bits do not match"));
+        }
+        assertEquals(1, syscoinStore.size());
+    }
+}